@@ -0,0 +1,141 @@
+package pacman.bench;
+
+import java.util.EnumMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pacman.game.Game;
+import pacman.game.GameBatch;
+
+import static pacman.game.Constants.*;
+
+/**
+ * Benchmarks of the forward model: advancing a game by one time step, advancing a batch of
+ * BATCH_SIZE games by one time step, and copying a game. Moves are
+ * drawn from sequences generated up front so that the benchmark measures the engine only. The game
+ * being advanced is reset to the start of the maze when it is over or after RESET_STEPS steps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class ForwardModelBenchmark
+{
+	private static final int RESET_STEPS=1000;
+	private static final int NUM_MOVES=4096;
+	private static final int BATCH_SIZE=256;
+	private static final GHOST[] GHOSTS=GHOST.values();
+
+	@Param({"0","1","2","3"})
+	public int maze;
+
+	private Game start;
+	private Game game;
+	private Game target;
+
+	private MOVE[] pacManMoves;
+	private MOVE[][] ghostMoves;
+	private EnumMap<GHOST,MOVE> ghostMoveMap;
+	private int step;
+
+	private GameBatch batch;
+	private MOVE[] batchMoves;
+	private EnumMap<GHOST,MOVE>[] batchGhostMoves;
+	private int batchStep;
+
+	@SuppressWarnings("unchecked")
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		Random rnd=new Random(maze);
+		MOVE[] moves=MOVE.values();
+
+		pacManMoves=new MOVE[NUM_MOVES];
+		ghostMoves=new MOVE[NUM_MOVES][NUM_GHOSTS];
+
+		for(int i=0;i<NUM_MOVES;i++)
+		{
+			pacManMoves[i]=moves[rnd.nextInt(moves.length)];
+
+			for(int j=0;j<NUM_GHOSTS;j++)
+				ghostMoves[i][j]=moves[rnd.nextInt(moves.length)];
+		}
+
+		ghostMoveMap=new EnumMap<GHOST,MOVE>(GHOST.class);
+		start=new Game(0,maze);
+		game=start.copy();
+		target=start.copy();
+
+		batch=new GameBatch(BATCH_SIZE);
+		batch.reset(start,maze);
+		batchMoves=new MOVE[BATCH_SIZE];
+		batchGhostMoves=new EnumMap[BATCH_SIZE];	// null: the ghosts keep their directions
+
+		// play into the maze a bit so copies are taken from a typical state
+		for(int i=0;i<200;i++)
+			advanceGame();
+	}
+
+	@Benchmark
+	public Game advanceGame()
+	{
+		if(game.gameOver() || step==RESET_STEPS)
+		{
+			start.copyInto(game);
+			step=0;
+		}
+
+		int i=step++&(NUM_MOVES-1);
+
+		for(int j=0;j<NUM_GHOSTS;j++)
+			ghostMoveMap.put(GHOSTS[j],ghostMoves[i][j]);
+
+		game.advanceGame(pacManMoves[i],ghostMoveMap);
+		return game;
+	}
+
+	@Benchmark
+	public int[] advanceBatch()
+	{
+		if(batch.getNumActive()==0 || batchStep==RESET_STEPS)
+		{
+			batch.reset(start,maze);
+			batchStep=0;
+		}
+
+		int i=batchStep++&(NUM_MOVES-1);
+
+		for(int j=0;j<BATCH_SIZE;j++)
+			batchMoves[j]=pacManMoves[(i+j)&(NUM_MOVES-1)];
+
+		return batch.advanceAll(batchMoves,batchGhostMoves);
+	}
+
+	@Benchmark
+	public Game copy()
+	{
+		return game.copy();
+	}
+
+	@Benchmark
+	public Game copyInto()
+	{
+		game.copyInto(target);
+		return target;
+	}
+}
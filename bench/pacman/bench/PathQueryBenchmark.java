@@ -0,0 +1,118 @@
+package pacman.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pacman.game.Game;
+import pacman.game.internal.PathsCache;
+
+import static pacman.game.Constants.*;
+
+/**
+ * Benchmarks of the path queries used by the controllers, on pairs of nodes drawn at random from the
+ * maze up front. Every invocation queries the next pair.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class PathQueryBenchmark
+{
+	private static final int NUM_PAIRS=4096;
+
+	@Param({"0","1","2","3"})
+	public int maze;
+
+	private Game game;
+	private PathsCache cache;
+	private int[] from;
+	private int[] to;
+	private MOVE[] lastMoves;
+	private int pair;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		Random rnd=new Random(maze);
+
+		game=new Game(0,maze);
+		cache=Game.getPathsCache(maze);
+		from=new int[NUM_PAIRS];
+		to=new int[NUM_PAIRS];
+		lastMoves=new MOVE[NUM_PAIRS];
+
+		for(int i=0;i<NUM_PAIRS;i++)
+		{
+			from[i]=randomNode(rnd);
+			to[i]=randomNode(rnd);
+
+			// ghosts can only have arrived at a node from one of its neighbours
+			MOVE[] moves=game.getPossibleMoves(from[i]);
+			lastMoves[i]=moves[rnd.nextInt(moves.length)].opposite();
+		}
+	}
+
+	/**
+	 * Draws a node that is connected to the maze, i.e., not inside the lair.
+	 */
+	private int randomNode(Random rnd)
+	{
+		int node;
+
+		do
+		{
+			node=rnd.nextInt(game.getNumberOfNodes());
+		}
+		while(game.getPossibleMoves(node).length==0);
+
+		return node;
+	}
+
+	private int next()
+	{
+		return pair++&(NUM_PAIRS-1);
+	}
+
+	@Benchmark
+	public int getShortestPathDistance()
+	{
+		int i=next();
+		return game.getShortestPathDistance(from[i],to[i]);
+	}
+
+	@Benchmark
+	public MOVE getNextMoveTowardsTarget()
+	{
+		int i=next();
+		return game.getNextMoveTowardsTarget(from[i],to[i],DM.PATH);
+	}
+
+	@Benchmark
+	public int[] getPathFromA2B()
+	{
+		int i=next();
+		return cache.getPathFromA2B(from[i],to[i]);
+	}
+
+	@Benchmark
+	public int[] getPathFromA2BNoReverse()
+	{
+		int i=next();
+		return cache.getPathFromA2B(from[i],to[i],lastMoves[i]);
+	}
+}
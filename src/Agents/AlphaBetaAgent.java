@@ -4,7 +4,10 @@ import pacman.controllers.Controller;
 import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
+import pacman.game.internal.Zobrist;
+import pacman.game.util.VirtualClock;
 import static Agents.MinimaxAgent.evaluationFunction;
+import static pacman.game.Constants.NUM_GHOSTS;
 
 import java.util.ArrayList;
 import java.util.EnumMap;
@@ -12,10 +15,54 @@ import java.util.EnumMap;
 /**
  * AlphaBeta agent class. Extends the minimax agent, using the same evaluation function
  * but prunes tree branches which enables larger tree depths.
+ * With iterative deepening the agent searches depth 1, 2, ... until the move is due, reusing
+ * the results of earlier iterations and moves through a transposition table.
  */
 public class AlphaBetaAgent extends Controller<MOVE> {
 
+    /**
+     * time kept in reserve to return the move before it is due, in milliseconds.
+     */
+    public static final int SAFETY_MARGIN = 5;
+    /**
+     * log2 of the number of transposition table entries.
+     */
+    public static final int TABLE_BITS = 18;
+    /**
+     * number of searched nodes between two checks of the clock.
+     */
+    private static final int CLOCK_CHECK_INTERVAL = 256;
+
+    private static final GHOST[] GHOSTS = GHOST.values();
+    private static final int NUM_AGENTS = NUM_GHOSTS + 1;
+    /**
+     * keys of the agent to move, combined with the hash of the position.
+     */
+    private static final long[] SIDE_KEYS = new long[NUM_AGENTS];
+
+    static {
+        for (int i = 0; i < NUM_AGENTS; i++) {
+            SIDE_KEYS[i] = Zobrist.key(-1, i);
+        }
+    }
+
+    /**
+     * search depth, or maximum search depth with iterative deepening.
+     */
     public int treeDepth;
+    public boolean iterativeDeepening;
+
+    private TranspositionTable table;
+    private MOVE[][] orderedMoves;
+    private long deadline;
+    private int nodes;
+    private boolean aborted;
+    private int lastDepth;
+
+    /**
+     * ghosts moves of the child being searched, reused for every child.
+     */
+    private final EnumMap<GHOST, MOVE> ghostMoves = new EnumMap<>(GHOST.class);
 
     /**
      * constructor function
@@ -25,6 +72,23 @@ public class AlphaBetaAgent extends Controller<MOVE> {
         this.treeDepth = d;
     }
 
+    /**
+     * constructor function
+     * @param d: tree depth, the maximum depth with iterative deepening
+     * @param iterativeDeepening: whether to deepen iteratively until the move is due
+     */
+    public AlphaBetaAgent(int d, boolean iterativeDeepening) {
+        this.treeDepth = d;
+        this.iterativeDeepening = iterativeDeepening;
+        if (iterativeDeepening) {
+            this.table = new TranspositionTable(TABLE_BITS);
+            this.orderedMoves = new MOVE[d * NUM_AGENTS][];
+            for (int i = 0; i < orderedMoves.length; i++) {
+                orderedMoves[i] = new MOVE[MOVE.values().length];
+            }
+        }
+    }
+
     /**
      * Same as in MinimaxAgent.java
      */
@@ -69,9 +133,7 @@ public class AlphaBetaAgent extends Controller<MOVE> {
         }
 
         for (MOVE m : moves) {
-            Game state = game.copy();
             MOVE pacmanMove = MOVE.NEUTRAL;
-            EnumMap<GHOST, MOVE> ghostMoves = new EnumMap<>(GHOST.class);
             for (GHOST g : game.getGhosts()) {
                 ghostMoves.put(g, MOVE.NEUTRAL);
             }
@@ -81,8 +143,10 @@ public class AlphaBetaAgent extends Controller<MOVE> {
             } else {
                 ghostMoves.put(currentGhost, m);
             }
-            state.advanceGame(pacmanMove, ghostMoves);
-            MoveScorePair<MOVE, Integer> pair = alphaBeta(state, agentIndex + 1, depth, alpha, beta);
+            // make/unmake on the same game instead of copying it for every child
+            game.advanceGame(pacmanMove, ghostMoves);
+            MoveScorePair<MOVE, Integer> pair = alphaBeta(game, agentIndex + 1, depth, alpha, beta);
+            game.undoAdvance();
             int value = pair.score;
             actionsValues.add(new MoveScorePair<>(m, value));
 
@@ -127,9 +191,195 @@ public class AlphaBetaAgent extends Controller<MOVE> {
     public MOVE getMove(Game game, long timeDue) {
         double alpha = Double.NEGATIVE_INFINITY;
         double beta = Double.POSITIVE_INFINITY;
+        game.enableUndo(this.treeDepth * (NUM_GHOSTS + 1));
+        if (iterativeDeepening) {
+            return iterativeDeepening(game, timeDue);
+        }
         return alphaBeta(game, 0, this.treeDepth, alpha, beta).move;
     }
 
+    /**
+     * search depth 1, 2, ... up to treeDepth, or until the move is due. An iteration that runs
+     * out of time is discarded. The best moves of earlier iterations, kept in the transposition
+     * table, are searched first, which makes the cutoffs of the next iteration more effective.
+     * @param game: current game state.
+     * @param timeDue: time the move is due, -1 to always search to treeDepth.
+     * @return: best move of the deepest completed iteration.
+     */
+    private MOVE iterativeDeepening(Game game, long timeDue) {
+        MOVE[] moves = game.getPossibleMoves(game.getPacmanPosition());
+        if (moves.length == 0) {
+            return MOVE.LEFT;
+        }
+
+        table.newSearch();
+        deadline = timeDue < 0 ? Long.MAX_VALUE : timeDue - SAFETY_MARGIN;
+        aborted = false;
+        nodes = 0;
+        lastDepth = 0;
+
+        MOVE best = moves[0];
+        for (int depth = 1; depth <= treeDepth; depth++) {
+            MOVE move = searchRoot(game, depth, moves);
+            if (aborted) {
+                break;
+            }
+            best = move;
+            lastDepth = depth;
+        }
+        return best;
+    }
+
+    /**
+     * @return best pacman move at depth, or null if the search ran out of time.
+     */
+    private MOVE searchRoot(Game game, int depth, MOVE[] moves) {
+        MOVE[] order = order(moves, table.probe(game.getZobristHash() ^ SIDE_KEYS[0]), 0);
+        int alpha = Integer.MIN_VALUE;
+        MOVE best = null;
+
+        for (int i = 0; i < moves.length; i++) {
+            setNeutral();
+            game.advanceGame(order[i], ghostMoves);
+            int value = search(game, 1, depth, alpha, Integer.MAX_VALUE, 1);
+            game.undoAdvance();
+            if (aborted) {
+                return null;
+            }
+            if (best == null || value > alpha) {
+                alpha = value;
+                best = order[i];
+            }
+        }
+
+        table.store(game.getZobristHash() ^ SIDE_KEYS[0], depth * NUM_AGENTS, TranspositionTable.EXACT, alpha, best);
+        return best;
+    }
+
+    /**
+     * alpha-beta search with transposition table, scores are from pacman's point of view.
+     * @param game: current game state, advanced and restored in place.
+     * @param agentIndex: index of agent - 0: pacman, 1+ ghost.
+     * @param depth: remaining depth.
+     * @param alpha: alpha of alpha-beta alg.
+     * @param beta: beta of alpha-beta alg.
+     * @param ply: distance to the root.
+     * @return score of the position, or a bound on it outside (alpha, beta).
+     */
+    private int search(Game game, int agentIndex, int depth, int alpha, int beta, int ply) {
+        if (agentIndex == NUM_AGENTS) {
+            agentIndex = 0;
+            depth--;
+        }
+
+        if (game.gameOver() || depth == 0) {
+            return evaluationFunction(game);
+        }
+
+        if (++nodes % CLOCK_CHECK_INTERVAL == 0 && VirtualClock.millis() >= deadline) {
+            aborted = true;
+        }
+        if (aborted) {
+            return 0;
+        }
+
+        long key = game.getZobristHash() ^ SIDE_KEYS[agentIndex];
+        int plies = (depth - 1) * NUM_AGENTS + NUM_AGENTS - agentIndex;
+        int entry = table.probe(key);
+
+        if (entry >= 0 && table.getPlies(entry) >= plies) {
+            int score = table.getScore(entry);
+            int bound = table.getBound(entry);
+            if (bound == TranspositionTable.EXACT
+                    || (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+                    || (bound == TranspositionTable.UPPER_BOUND && score <= alpha)) {
+                return score;
+            }
+        }
+
+        boolean maximizing = agentIndex == 0;
+        GHOST currentGhost = maximizing ? null : GHOSTS[agentIndex - 1];
+        MOVE[] moves = game.getPossibleMoves(maximizing ? game.getPacmanPosition()
+                : game.getGhostCurrentNodeIndex(currentGhost));
+        if (moves.length == 0) {
+            return 0;
+        }
+        MOVE[] order = order(moves, entry, ply);
+
+        int alphaOrig = alpha;
+        int betaOrig = beta;
+        int best = maximizing ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        MOVE bestMove = null;
+
+        for (int i = 0; i < moves.length; i++) {
+            MOVE m = order[i];
+            setNeutral();
+            if (maximizing) {
+                game.advanceGame(m, ghostMoves);
+            } else {
+                ghostMoves.put(currentGhost, m);
+                game.advanceGame(MOVE.NEUTRAL, ghostMoves);
+            }
+            int value = search(game, agentIndex + 1, depth, alpha, beta, ply + 1);
+            game.undoAdvance();
+            if (aborted) {
+                return 0;
+            }
+
+            if (bestMove == null || (maximizing ? value > best : value < best)) {
+                best = value;
+                bestMove = m;
+            }
+            if (maximizing) {
+                alpha = Math.max(alpha, best);
+            } else {
+                beta = Math.min(beta, best);
+            }
+            if (alpha >= beta) {
+                break;
+            }
+        }
+
+        int bound = best <= alphaOrig ? TranspositionTable.UPPER_BOUND
+                : best >= betaOrig ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+        table.store(key, plies, bound, best, bestMove);
+        return best;
+    }
+
+    /**
+     * @return moves with the best move of the table entry, if any, first.
+     */
+    private MOVE[] order(MOVE[] moves, int entry, int ply) {
+        MOVE[] order = orderedMoves[ply];
+        MOVE first = entry >= 0 ? table.getMove(entry) : null;
+        int n = 0;
+
+        for (MOVE m : moves) {
+            if (m == first) {
+                order[n++] = m;
+            }
+        }
+        for (MOVE m : moves) {
+            if (m != first) {
+                order[n++] = m;
+            }
+        }
+        return order;
+    }
+
+    private void setNeutral() {
+        for (GHOST g : GHOSTS) {
+            ghostMoves.put(g, MOVE.NEUTRAL);
+        }
+    }
+
+    /**
+     * @return depth of the last completed iterative deepening iteration.
+     */
+    public int getLastDepth() {
+        return lastDepth;
+    }
+
     public static class MoveScorePair<M, S> {
         public M move;
         public S score;
@@ -7,14 +7,30 @@ import pacman.controllers.examples.StarterGhosts;
 import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
+import pacman.game.util.SplitMix64;
 
 
 public class HeuristicAgent extends Controller<MOVE> {
 
     /**
-     * ghosts controller of the game
+     * ghosts model used to predict the ghosts' moves, one per agent as controllers keep state.
      */
-    public static Controller<EnumMap<GHOST, MOVE>> ghosts = new StarterGhosts();
+    private final Controller<EnumMap<GHOST, MOVE>> ghosts;
+
+    /**
+     * constructor function, the ghosts model draws from an unseeded generator.
+     */
+    public HeuristicAgent() {
+        this(new SplitMix64());
+    }
+
+    /**
+     * constructor function
+     * @param rnd random generator of the ghosts model, e.g. a seeded one for reproducible games
+     */
+    public HeuristicAgent(SplitMix64 rnd) {
+        ghosts = new StarterGhosts(rnd);
+    }
 
     /**
      * Did pacman eat a pill when transitioning into this game state.
@@ -51,62 +67,28 @@ public class HeuristicAgent extends Controller<MOVE> {
     public static double getGameScore(Game state) {
         if (state.isPacmanDead()) return Double.NEGATIVE_INFINITY;
 
+        LeafEvaluator leaf = LeafEvaluator.current().evaluate(state);
+
         double foodScore = 100 * hasFood(state);
         double activeGhostScore = 0;
         double scaredGhostScore = 50 * hasScaredGhost(state);
         double capsuleScore = 100 * hasCapsule(state);
 
-        int pacmanIndex = state.getPacmanPosition();
-
-        ArrayList<Integer> distanceToFood = new ArrayList<>();
-        for (int i : state.getRemainingPillsIndices()) {
-            distanceToFood.add(state.getShortestPathDistance(pacmanIndex, i));
-        }
-
-        ArrayList<Integer> distanceToCapsule = new ArrayList<>();
-        for (int i : state.getActivePowerPillsIndices()) {
-            distanceToCapsule.add(state.getShortestPathDistance(pacmanIndex, i));
-        }
-
-        ArrayList<Integer> distancesToScaredGhosts = new ArrayList<>();
-        ArrayList<Integer> distancesToActiveGhosts = new ArrayList<>();
-        for (GHOST g : state.getGhosts()) {
-            int ghostIndex = state.getGhostCurrentNodeIndex(g);
-            int d = state.getShortestPathDistance(pacmanIndex, ghostIndex);
-            if (state.getGhostEdibleTime(g) > 0) {
-                distancesToScaredGhosts.add(d);
-            } else {
-                distancesToActiveGhosts.add(d);
-            }
-        }
-
-        if (distanceToFood.size() > 0) {
-            int closestFood = Collections.min(distanceToFood);
+        int closestFood = leaf.getClosestPill();
+        if (closestFood != LeafEvaluator.NONE) {
             foodScore -= 0.1 * closestFood;
         }
 
-        if (distancesToActiveGhosts.size() > 0) {
-            int closestActiveGhost = Collections.min(distancesToActiveGhosts);
-            if (closestActiveGhost < 5) {
-                activeGhostScore += -2000 * (double) (1 / closestActiveGhost);
-            } else if (closestActiveGhost < 10) {
-                activeGhostScore += -0 * (double) (1 / closestActiveGhost);
-            } else {
-                activeGhostScore += -0 * (double) (5 - closestActiveGhost);
-            }
-        }
-
-        if (distancesToScaredGhosts.size() > 0) {
-            int closestScaredGhost = Collections.min(distancesToScaredGhosts);
-            scaredGhostScore += 0 * (double) (1 / closestScaredGhost);
+        int closestActiveGhost = leaf.getClosestActiveGhost();
+        if (closestActiveGhost < 5) {
+            activeGhostScore += -2000 * (double) (1 / closestActiveGhost);
         }
 
-        if (distanceToCapsule.size() > 0 && distancesToScaredGhosts.size() == 0) {
-            int closestCapsule = Collections.min(distanceToCapsule);
+        int closestCapsule = leaf.getClosestPowerPill();
+        if (closestCapsule != LeafEvaluator.NONE && leaf.getClosestEdibleGhost() == LeafEvaluator.NONE) {
             capsuleScore += 10 * (double) (1 / closestCapsule);
         }
 
-
         return foodScore + activeGhostScore + scaredGhostScore + capsuleScore;
     }
 
@@ -116,7 +98,7 @@ public class HeuristicAgent extends Controller<MOVE> {
      * @param m move to test
      * @return score of that move from game state
      */
-    public static double getScoreOfMove(Game game, MOVE m) {
+    public double getScoreOfMove(Game game, MOVE m) {
         Game state = game.copy();
         state.advanceGame(m, ghosts.getMove(state, System.currentTimeMillis()));
         double neutralPenalty = m == MOVE.NEUTRAL ? 10 : 0;
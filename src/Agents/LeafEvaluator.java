@@ -0,0 +1,96 @@
+package Agents;
+
+import pacman.game.Constants.GHOST;
+import pacman.game.Game;
+
+/**
+ * Computes the features the evaluation functions of the agents are built from (see
+ * HeuristicAgent.getGameScore() and MinimaxAgent.evaluationFunction()): the shortest path distances from
+ * pacman to the closest pill, power pill, active ghost and edible ghost. They are found in a single pass
+ * over the ghosts and power pills, the closest pill through the game's pill ordering, and kept in
+ * primitive fields, so evaluating a leaf does not allocate. An evaluator is reused for every leaf and is
+ * not thread safe, use one per thread (see current()).
+ */
+public final class LeafEvaluator {
+
+    /**
+     * distance reported when there is no such target.
+     */
+    public static final int NONE = Integer.MAX_VALUE;
+
+    private static final GHOST[] ALL_GHOSTS = GHOST.values();
+
+    private static final ThreadLocal<LeafEvaluator> EVALUATORS = ThreadLocal.withInitial(LeafEvaluator::new);
+
+    private int closestPill;
+    private int closestPowerPill;
+    private int closestActiveGhost;
+    private int closestEdibleGhost;
+
+    /**
+     * @return the evaluator of the calling thread.
+     */
+    public static LeafEvaluator current() {
+        return EVALUATORS.get();
+    }
+
+    /**
+     * compute the features of a state, replacing those of the previous one.
+     * @param state the game state
+     * @return this evaluator, to read the features from.
+     */
+    public LeafEvaluator evaluate(Game state) {
+        int pacmanIndex = state.getPacmanPosition();
+
+        int pill = state.getClosestActivePillNodeIndex(pacmanIndex, false);
+        closestPill = pill == -1 ? NONE : state.getShortestPathDistance(pacmanIndex, pill);
+
+        int[] powerPills = state.getPowerPillIndices();
+        closestPowerPill = NONE;
+        for (int i = 0; i < powerPills.length; i++) {
+            if (state.isPowerPillStillAvailable(i))
+                closestPowerPill = Math.min(closestPowerPill, state.getShortestPathDistance(pacmanIndex, powerPills[i]));
+        }
+
+        closestActiveGhost = NONE;
+        closestEdibleGhost = NONE;
+        for (GHOST g : ALL_GHOSTS) {
+            int d = state.getShortestPathDistance(pacmanIndex, state.getGhostCurrentNodeIndex(g));
+            if (state.getGhostEdibleTime(g) > 0) {
+                closestEdibleGhost = Math.min(closestEdibleGhost, d);
+            } else {
+                closestActiveGhost = Math.min(closestActiveGhost, d);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * @return the distance to the closest remaining pill, or NONE.
+     */
+    public int getClosestPill() {
+        return closestPill;
+    }
+
+    /**
+     * @return the distance to the closest remaining power pill, or NONE.
+     */
+    public int getClosestPowerPill() {
+        return closestPowerPill;
+    }
+
+    /**
+     * @return the distance to the closest ghost that is not edible (including ghosts in the lair), or NONE.
+     */
+    public int getClosestActiveGhost() {
+        return closestActiveGhost;
+    }
+
+    /**
+     * @return the distance to the closest edible ghost, or NONE.
+     */
+    public int getClosestEdibleGhost() {
+        return closestEdibleGhost;
+    }
+}
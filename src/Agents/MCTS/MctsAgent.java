@@ -7,12 +7,20 @@ import pacman.game.Constants.DM;
 import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
+import pacman.game.util.SplitMix64;
+import pacman.game.util.VirtualClock;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Date;
 import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static Agents.MCTS.MctsConstants.*;
 
@@ -22,8 +30,62 @@ import static Agents.MCTS.MctsConstants.*;
  */
 public class MctsAgent extends Controller<MOVE> {
 
-    public static Controller<EnumMap<GHOST, MOVE>> ghosts = new StarterGhosts();
-    public static int tree_depth = 0;
+    /**
+     * How the search is spread over worker threads.
+     * SEQUENTIAL: a single tree searched on the calling thread.
+     * ROOT_PARALLEL: every worker grows its own tree, visits and rewards are merged at the root.
+     * TREE_PARALLEL: all workers grow one shared tree, using virtual loss to spread out.
+     */
+    public enum SearchMode {
+        SEQUENTIAL, ROOT_PARALLEL, TREE_PARALLEL
+    }
+
+    /**
+     * ghosts model used inside the search, one instance per thread as controllers keep state. It
+     * draws from the random generator of the thread's rollout engine.
+     */
+    public static final ThreadLocal<Controller<EnumMap<GHOST, MOVE>>> ghosts =
+            ThreadLocal.withInitial(() -> new StarterGhosts(RolloutEngine.current().random()));
+
+    private final SearchMode mode;
+    private final int numWorkers;
+    private ExecutorService workers;
+    //seeds of the random generators of the worker threads
+    private final SplitMix64 seeds = new SplitMix64();
+
+    //simulations per second reporting
+    private volatile double lastSimulationsPerSecond = 0;
+    private long totalSimulations = 0;
+    private long totalSearchMillis = 0;
+
+    //statistics of every search, if collected
+    private volatile MctsTelemetry telemetry;
+
+    /**
+     * constructor function, single threaded search.
+     */
+    public MctsAgent() {
+        this(SearchMode.SEQUENTIAL, 1);
+    }
+
+    /**
+     * constructor function, NUM_WORKERS worker threads.
+     * @param mode how the search is parallelised
+     */
+    public MctsAgent(SearchMode mode) {
+        this(mode, NUM_WORKERS);
+    }
+
+    /**
+     * constructor function
+     * @param mode how the search is parallelised
+     * @param numWorkers number of worker threads used by the parallel modes
+     */
+    public MctsAgent(SearchMode mode, int numWorkers) {
+        if (numWorkers < 1) throw new IllegalArgumentException("numWorkers must be positive: " + numWorkers);
+        this.mode = mode;
+        this.numWorkers = numWorkers;
+    }
 
     /**
      * get the best move to make from this position
@@ -46,8 +108,7 @@ public class MctsAgent extends Controller<MOVE> {
 
         // run Mcts when in a junction to get next move (next move is based on next junction)
         if (pacmanInJunction(game)) {
-            tree_depth = 0;
-            return SearchForMove(game);
+            return SearchForMove(game, timeDue);
         }
 
         // follow path until chosen junction is met.
@@ -107,19 +168,347 @@ public class MctsAgent extends Controller<MOVE> {
      * @return the move to take from game state.
      */
     public MOVE SearchForMove(Game game) {
+        return SearchForMove(game, -1);
+    }
+
+    /**
+     * same as above, stopping the search in time for the move to be returned before it is due.
+     * @param game a copy of game state
+     * @param timeDue the time the move is due, or -1 to search for SEARCH_TIME_LIMIT ms
+     * @return the move to take from game state.
+     */
+    public MOVE SearchForMove(Game game, long timeDue) {
+        long start = VirtualClock.millis();
+        long end = start + SEARCH_TIME_LIMIT;
+        if (timeDue >= 0) end = Math.min(end, timeDue - DEADLINE_MARGIN);
+
+        switch (mode) {
+            case ROOT_PARALLEL:
+                return rootParallelSearch(game, start, end);
+            case TREE_PARALLEL:
+                return treeParallelSearch(game, start, end);
+            default:
+                return sequentialSearch(game, start, end);
+        }
+    }
+
+    /**
+     * single threaded search on the calling thread, which stops early if the thread is interrupted.
+     * @param game a copy of game state
+     * @param start the time the search started
+     * @param end the time the search has to stop
+     * @return the move to take from game state.
+     */
+    private MOVE sequentialSearch(Game game, long start, long end) {
 
         //create root node with state0
         Node root = new Node(null, game);
-        long start = new Date().getTime();
+        SearchStats stats = startStats(game);
+        long searchStart = System.nanoTime();
+        long simulations = 0;
+
+        while (VirtualClock.millis() < end && root.treeSize.get() <= TREE_LIMIT
+                && !Thread.currentThread().isInterrupted()) {
+            if (!iterate(root, 0, stats)) {
+                if (stats != null) stats.stop = SearchStats.Stop.TERMINAL;
+                finishStats(stats, searchStart, root);
+                return MOVE.DOWN;
+            }
+            simulations++;
+        }
+        recordSimulations(simulations, VirtualClock.millis() - start);
+        finishStats(stats, searchStart, root);
 
-        while (new Date().getTime() < start + SEARCH_TIME_LIMIT && tree_depth <= TREE_LIMIT) {
-            Node node = selection(root);
-            if (node == null) return MOVE.DOWN;
-            backpropagation(node, simulation(node));
+        Node bestChild = BestChild(root, 0);
+        return bestChild==null ? new RandomPacMan(RolloutEngine.current().random()).getMove(game, -1) : bestChild.action;
+    }
+
+    /**
+     * root parallelisation: every worker searches its own tree from a copy of the state, the
+     * visit counts and rewards of the root children are then merged per move.
+     * @param game a copy of game state
+     * @param start the time the search started
+     * @param end the time the search has to stop
+     * @return the move with the best merged average reward.
+     */
+    private MOVE rootParallelSearch(Game game, long start, long end) {
+        //the roots are created here, so that what the workers searched is merged even if they are cancelled
+        List<Node> roots = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        SearchStats stats = startStats(game);
+        long searchStart = System.nanoTime();
+
+        for (int i = 0; i < numWorkers; i++) {
+            Node root = new Node(null, game.copy());
+            roots.add(root);
+            tasks.add(() -> {
+                SearchStats local = stats == null ? null : new SearchStats();
+                while (VirtualClock.millis() < end && root.treeSize.get() <= TREE_LIMIT
+                        && !Thread.currentThread().isInterrupted()) {
+                    if (!iterate(root, 0, local)) {
+                        if (local != null) local.stop = SearchStats.Stop.TERMINAL;
+                        break;
+                    }
+                }
+                if (stats != null) stats.add(local);
+                return null;
+            });
+        }
+
+        runWorkers(tasks);
+        finishStats(stats, searchStart, roots.toArray(new Node[0]));
+
+        EnumMap<MOVE, Integer> visits = new EnumMap<>(MOVE.class);
+        EnumMap<MOVE, Double> rewards = new EnumMap<>(MOVE.class);
+        long simulations = 0;
+
+        for (Node root : roots) {
+            simulations += root.getVisitCount();
+            for (Node child : root.children) {
+                visits.merge(child.action, child.getVisitCount(), Integer::sum);
+                rewards.merge(child.action, child.getReward(), Double::sum);
+            }
+        }
+        recordSimulations(simulations, VirtualClock.millis() - start);
+
+        MOVE bestMove = null;
+        double bestValue = -1.0f;
+        for (MOVE move : visits.keySet()) {
+            double value = rewards.get(move) / visits.get(move);
+            if (value >= bestValue) {
+                bestValue = value;
+                bestMove = move;
+            }
+        }
+        return bestMove == null ? new RandomPacMan(RolloutEngine.current().random()).getMove(game, -1) : bestMove;
+    }
+
+    /**
+     * tree parallelisation: all workers share a single tree. Nodes on the path being simulated
+     * carry a virtual loss until the result is backpropagated.
+     * @param game a copy of game state
+     * @param start the time the search started
+     * @param end the time the search has to stop
+     * @return the move to take from game state.
+     */
+    private MOVE treeParallelSearch(Game game, long start, long end) {
+        Node root = new Node(null, game);
+        AtomicLong simulations = new AtomicLong();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        SearchStats stats = startStats(game);
+        long searchStart = System.nanoTime();
+
+        for (int i = 0; i < numWorkers; i++) {
+            tasks.add(() -> {
+                SearchStats local = stats == null ? null : new SearchStats();
+                while (VirtualClock.millis() < end && root.treeSize.get() <= TREE_LIMIT
+                        && !Thread.currentThread().isInterrupted()) {
+                    if (!iterate(root, VIRTUAL_LOSS, local)) {
+                        if (local != null) local.stop = SearchStats.Stop.TERMINAL;
+                        break;
+                    }
+                    simulations.incrementAndGet();
+                }
+                if (stats != null) stats.add(local);
+                return null;
+            });
         }
 
+        runWorkers(tasks);
+        recordSimulations(simulations.get(), VirtualClock.millis() - start);
+        finishStats(stats, searchStart, root);
+
         Node bestChild = BestChild(root, 0);
-        return bestChild==null ? new RandomPacMan().getMove(game, -1) : bestChild.action;
+        return bestChild==null ? new RandomPacMan(RolloutEngine.current().random()).getMove(game, -1) : bestChild.action;
+    }
+
+    /**
+     * run the search tasks on the worker pool and wait for all of them, or until the calling thread
+     * is interrupted, in which case the tasks are cancelled and the trees are left as they are.
+     * @param tasks search tasks
+     */
+    private void runWorkers(List<Callable<Void>> tasks) {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(numWorkers, r -> {
+                long seed = seeds.nextLong();
+                Thread t = new Thread(() -> {
+                    RolloutEngine.current().setSeed(seed);
+                    r.run();
+                }, "mcts-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        //on a virtual clock, every worker reads its own fork of it, forked before any of them starts
+        VirtualClock clock = VirtualClock.current();
+        List<VirtualClock> forks = new ArrayList<>();
+        List<Callable<Void>> timed = new ArrayList<>();
+        for (Callable<Void> task : tasks) {
+            if (clock == null) {
+                timed.add(task);
+                continue;
+            }
+            VirtualClock fork = clock.fork();
+            forks.add(fork);
+            timed.add(() -> {
+                fork.install();
+                try {
+                    return task.call();
+                } finally {
+                    VirtualClock.uninstall();
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> f : workers.invokeAll(timed)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (VirtualClock fork : forks) {
+                clock.join(fork);
+            }
+        }
+    }
+
+    /**
+     * one round of selection (including expansion), simulation and backpropagation. If stats are
+     * collected, the phases are timed and the rollouts counted into them.
+     * @param root the root of the tree
+     * @param virtualLoss virtual loss of a shared tree (0 for none)
+     * @param stats the statistics of this thread's search, or null
+     * @return false if there was nothing to select.
+     */
+    private boolean iterate(Node root, int virtualLoss, SearchStats stats) {
+        if (stats == null) {
+            Node node = selection(root, virtualLoss, null);
+            if (node == null) return false;
+            if (virtualLoss == 0) backpropagation(node, simulation(node));
+            else backpropagation(node, simulation(node), virtualLoss);
+            return true;
+        }
+
+        long t0 = System.nanoTime();
+        Node node = selection(root, virtualLoss, stats);
+        long t1 = System.nanoTime();
+        stats.selectionNanos += t1 - t0;
+        if (node == null) return false;
+
+        RolloutEngine engine = RolloutEngine.current();
+        long rollouts = engine.getRollouts(), steps = engine.getSteps();
+        float reward = simulation(node);
+        long t2 = System.nanoTime();
+        stats.simulationNanos += t2 - t1;
+        stats.rollouts += engine.getRollouts() - rollouts;
+        stats.rolloutSteps += engine.getSteps() - steps;
+
+        if (virtualLoss == 0) backpropagation(node, reward);
+        else backpropagation(node, reward, virtualLoss);
+        stats.backpropagationNanos += System.nanoTime() - t2;
+        stats.iterations++;
+        return true;
+    }
+
+    /**
+     * @return the statistics of a search from this state, or null if they are not collected.
+     */
+    private SearchStats startStats(Game game) {
+        return telemetry == null ? null : new SearchStats(game, mode);
+    }
+
+    /**
+     * complete the statistics of a search with its time, why it stopped and its trees, and record them.
+     * @param stats statistics of the search, or null
+     * @param searchStart System.nanoTime() when the search started
+     * @param roots the roots of the trees searched
+     */
+    private void finishStats(SearchStats stats, long searchStart, Node... roots) {
+        MctsTelemetry target = telemetry;
+        if (stats == null || target == null) return;
+
+        //workers of a cancelled search may still be finishing: they must not add to recorded stats
+        synchronized (stats) {
+            stats.recorded = true;
+            stats.searchNanos = System.nanoTime() - searchStart;
+            // selection counts from the time the expansions took
+            stats.selectionNanos -= stats.expansionNanos;
+
+            boolean treeLimit = false;
+            for (Node root : roots) {
+                stats.addTree(root, 0);
+                treeLimit |= root.treeSize.get() > TREE_LIMIT;
+            }
+
+            if (stats.stop != SearchStats.Stop.TERMINAL) {
+                if (treeLimit) stats.stop = SearchStats.Stop.TREE_LIMIT;
+                else if (Thread.currentThread().isInterrupted()) stats.stop = SearchStats.Stop.INTERRUPTED;
+                else stats.stop = SearchStats.Stop.TIME;
+            }
+            target.record(stats);
+        }
+    }
+
+    private synchronized void recordSimulations(long simulations, long millis) {
+        totalSimulations += simulations;
+        totalSearchMillis += millis;
+        lastSimulationsPerSecond = simulations * 1000.0 / Math.max(1, millis);
+    }
+
+    /**
+     * @return simulations per second achieved by the last search.
+     */
+    public double getLastSimulationsPerSecond() {
+        return lastSimulationsPerSecond;
+    }
+
+    /**
+     * @return simulations per second over all searches made by this agent.
+     */
+    public synchronized double getSimulationsPerSecond() {
+        return totalSimulations * 1000.0 / Math.max(1, totalSearchMillis);
+    }
+
+    /**
+     * collect the statistics of every search from now on (see MctsTelemetry), or stop collecting
+     * them. Phases are only timed while statistics are collected.
+     * @param telemetry where to record the statistics, or null
+     */
+    public void setTelemetry(MctsTelemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * @return where the statistics of the searches are recorded, or null if they are not collected.
+     */
+    public MctsTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * seed the random generators of the search: the one of the calling thread, which runs the
+     * sequential search, and those of the worker threads started from now on. Sequential searches
+     * with the same seed and budget in simulations are identical; parallel ones still depend on
+     * thread scheduling.
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        seeds.setSeed(seed);
+        RolloutEngine.current().setSeed(seeds.nextLong());
+    }
+
+    /**
+     * stop the worker threads of the parallel modes.
+     */
+    public void shutdown() {
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
     }
 
     /**
@@ -128,15 +517,32 @@ public class MctsAgent extends Controller<MOVE> {
      * @return child node selected
      */
     public Node selection(Node node) {
+        return selection(node, 0, null);
+    }
+
+    /**
+     * Selection policy, adding a virtual loss to every node chosen on the way down.
+     * @param node the node from which we select a child.
+     * @param virtualLoss virtual visits added to chosen nodes (0 for none)
+     * @param stats statistics the time of the expansion is added to, or null
+     * @return child node selected
+     */
+    private Node selection(Node node, int virtualLoss, SearchStats stats) {
 
         if (node == null) return null;
 
         while (!node.isGameOver()) {
             if (!node.isFullyExpanded()) {
-                return node.expend();
+                long start = stats == null ? 0 : System.nanoTime();
+                Node expanded = node.expend();
+                if (stats != null) stats.expansionNanos += System.nanoTime() - start;
+                if (expanded != node) expanded.addVirtualLoss(virtualLoss);
+                return expanded;
             }
             else {
-                node = selection(BestChild(node, C));
+                Node child = BestChild(node, C);
+                if (child != null) child.addVirtualLoss(virtualLoss);
+                node = selection(child, virtualLoss, stats);
                 if (node == null) break;
             }
         }
@@ -144,7 +550,7 @@ public class MctsAgent extends Controller<MOVE> {
     }
 
     /**
-     * Simulation policy, run simulation from a given node.
+     * Simulation policy, run simulation from a given node on the rollout engine of this thread.
      * @param node start point of simulation.
      * @return score of simulation
      */
@@ -154,43 +560,10 @@ public class MctsAgent extends Controller<MOVE> {
             return 0;
 
         // If died on the way to the junction
-        if (node.reward == 0.0f)
+        if (node.getReward() == 0.0f)
             return 0;
 
-        int steps = 0;
-        Controller<MOVE> pacManController = new RandomPacMan();
-        Controller<EnumMap<GHOST, MOVE>> ghostController = ghosts;
-
-        Game state = node.game.copy();
-        int pillsBefore = state.getAmountOfRemainingPills();
-        int livesBefore = state.getLivesRemaining();
-
-        // simulate
-        while (!state.gameOver()) {
-            //advance game
-            MOVE pacmanMove = pacManController.getMove(state, System.currentTimeMillis());
-            EnumMap<GHOST, MOVE> ghostsMoves = ghostController.getMove(state, System.currentTimeMillis());
-            state.advanceGame(pacmanMove, ghostsMoves);
-            steps++;
-
-            if (steps >= SIMULATION_STEPS) {
-                break;
-            }
-        }
-
-        // DEATH CONDITION
-        int livesAfter = state.getLivesRemaining();
-        if (livesAfter < livesBefore) {
-            return 0.0f;
-        }
-
-        // Maze level completed
-        if (state.getAmountOfRemainingPills() == 0) {
-            return 1.0f;
-        }
-
-        //reward based on pills eaten
-        return 1.0f - ((float) state.getAmountOfRemainingPills() / ((float) pillsBefore));
+        return RolloutEngine.current().rollout(node.game, SIMULATION_STEPS);
     }
 
     /**
@@ -223,8 +596,11 @@ public class MctsAgent extends Controller<MOVE> {
      * @return the score of that node
      */
     private double UCT(Node node, double C) {
-        double uct = (node.reward / node.visitCount) +
-                C * Math.sqrt(2 * Math.log(node.parent.visitCount) / node.visitCount);
+        int visits = node.getVisitCount();
+        // a child published by another worker before its first backpropagation
+        if (visits == 0) return Double.MAX_VALUE;
+        double uct = (node.getReward() / visits) +
+                C * Math.sqrt(2 * Math.log(node.parent.getVisitCount()) / visits);
         return (float) uct;
     }
 
@@ -236,7 +612,23 @@ public class MctsAgent extends Controller<MOVE> {
     private void backpropagation(Node node, double reward) {
         while (node != null) {
             node.incrementVisitCount();
-            node.reward += reward;
+            node.addReward(reward);
+            node = node.parent;
+        }
+    }
+
+    /**
+     * backprop for the shared tree: the virtual loss added during selection is replaced by
+     * the real visit. The root never receives a virtual loss.
+     * @param node starting point of simulation
+     * @param reward the score that needs to be propagated back.
+     * @param virtualLoss virtual visits added during selection
+     */
+    private void backpropagation(Node node, double reward, int virtualLoss) {
+        while (node != null) {
+            if (node.parent == null) node.incrementVisitCount();
+            else node.revertVirtualLoss(virtualLoss);
+            node.addReward(reward);
             node = node.parent;
         }
     }
@@ -10,5 +10,10 @@ public class MctsConstants {
     public static final int hunt_dist = 25;
     public static final int TREE_LIMIT = 35;
     public static final int SEARCH_TIME_LIMIT = 50;
+    //ms before the move is due at which the search stops
+    public static final int DEADLINE_MARGIN = 5;
     public static final int SIMULATION_STEPS = 30;
+    //PARALLEL SEARCH
+    public static final int NUM_WORKERS = Runtime.getRuntime().availableProcessors();
+    public static final int VIRTUAL_LOSS = 1;
 }
@@ -0,0 +1,202 @@
+package Agents.MCTS;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects the statistics of the decisions of an MctsAgent (see MctsAgent.setTelemetry()), e.g. to tune
+ * SEARCH_TIME_LIMIT, TREE_LIMIT and SIMULATION_STEPS from data: one SearchStats per search, aggregated
+ * over all of them, and exported as CSV (one row per decision) or JSON (the aggregates and the
+ * decisions). Use one per game, or clear() it between games. Thread safe.
+ */
+public final class MctsTelemetry {
+
+    private static final String CSV_HEADER = "tick,level,mode,stop,iterations,rollouts,rolloutSteps,"
+            + "rolloutsPerSecond,searchNanos,selectionNanos,expansionNanos,simulationNanos,"
+            + "backpropagationNanos,treeSize,maxDepth,branchingFactor,treeBytes";
+
+    private final List<SearchStats> decisions = new ArrayList<>();
+
+    /**
+     * add the statistics of a decision.
+     * @param stats statistics of the decision
+     */
+    synchronized void record(SearchStats stats) {
+        decisions.add(stats);
+    }
+
+    /**
+     * forget all decisions recorded so far.
+     */
+    public synchronized void clear() {
+        decisions.clear();
+    }
+
+    /**
+     * @return the statistics of all decisions recorded so far, in order.
+     */
+    public synchronized List<SearchStats> getDecisions() {
+        return new ArrayList<>(decisions);
+    }
+
+    /**
+     * @return number of decisions recorded.
+     */
+    public synchronized int getDecisionCount() {
+        return decisions.size();
+    }
+
+    /**
+     * @return mean number of iterations per decision.
+     */
+    public synchronized double getMeanIterations() {
+        long iterations = 0;
+        for (SearchStats stats : decisions) {
+            iterations += stats.iterations;
+        }
+        return decisions.isEmpty() ? 0 : (double) iterations / decisions.size();
+    }
+
+    /**
+     * @return rollouts per second over all decisions.
+     */
+    public synchronized double getRolloutsPerSecond() {
+        long rollouts = 0, nanos = 0;
+        for (SearchStats stats : decisions) {
+            rollouts += stats.rollouts;
+            nanos += stats.searchNanos;
+        }
+        return rollouts * 1e9 / Math.max(1, nanos);
+    }
+
+    /**
+     * @return mean number of nodes of the trees.
+     */
+    public synchronized double getMeanTreeSize() {
+        long nodes = 0;
+        for (SearchStats stats : decisions) {
+            nodes += stats.treeSize;
+        }
+        return decisions.isEmpty() ? 0 : (double) nodes / decisions.size();
+    }
+
+    /**
+     * @return number of decisions per reason the search stopped.
+     */
+    public synchronized EnumMap<SearchStats.Stop, Integer> getStops() {
+        EnumMap<SearchStats.Stop, Integer> stops = new EnumMap<>(SearchStats.Stop.class);
+        for (SearchStats.Stop stop : SearchStats.Stop.values()) {
+            stops.put(stop, 0);
+        }
+        for (SearchStats stats : decisions) {
+            stops.merge(stats.stop, 1, Integer::sum);
+        }
+        return stops;
+    }
+
+    /**
+     * write one CSV row per decision, preceded by a header row.
+     * @param out where to write to
+     * @throws IOException if writing fails
+     */
+    public synchronized void writeCsv(Appendable out) throws IOException {
+        out.append(CSV_HEADER).append('\n');
+        for (SearchStats s : decisions) {
+            out.append(String.format(Locale.ROOT, "%d,%d,%s,%s,%d,%d,%d,%.1f,%d,%d,%d,%d,%d,%d,%d,%.3f,%d%n",
+                    s.tick, s.level, s.mode, s.stop, s.iterations, s.rollouts, s.rolloutSteps,
+                    s.getRolloutsPerSecond(), s.searchNanos, s.selectionNanos, s.expansionNanos,
+                    s.simulationNanos, s.backpropagationNanos, s.treeSize, s.maxDepth, s.getBranchingFactor(),
+                    s.getTreeBytes()));
+        }
+    }
+
+    /**
+     * @return the aggregates over all decisions and the decisions themselves as a JSON object.
+     */
+    public synchronized String toJson() {
+        long iterations = 0, rollouts = 0, steps = 0, search = 0, selection = 0, expansion = 0, simulation = 0,
+                backpropagation = 0, nodes = 0, innerNodes = 0, edges = 0, bytes = 0, maxBytes = 0;
+        int maxTreeSize = 0, maxDepth = 0;
+
+        for (SearchStats s : decisions) {
+            iterations += s.iterations;
+            rollouts += s.rollouts;
+            steps += s.rolloutSteps;
+            search += s.searchNanos;
+            selection += s.selectionNanos;
+            expansion += s.expansionNanos;
+            simulation += s.simulationNanos;
+            backpropagation += s.backpropagationNanos;
+            nodes += s.treeSize;
+            innerNodes += s.innerNodes;
+            edges += s.edges;
+            bytes += s.getTreeBytes();
+            maxBytes = Math.max(maxBytes, s.getTreeBytes());
+            maxTreeSize = Math.max(maxTreeSize, s.treeSize);
+            maxDepth = Math.max(maxDepth, s.maxDepth);
+        }
+
+        int n = Math.max(1, decisions.size());
+        StringBuilder json = new StringBuilder();
+
+        json.append("{\"summary\":{");
+        json.append("\"decisions\":").append(decisions.size());
+        json.append(",\"iterations\":").append(iterations);
+        json.append(",\"meanIterations\":").append(number((double) iterations / n));
+        json.append(",\"rollouts\":").append(rollouts);
+        json.append(",\"rolloutSteps\":").append(steps);
+        json.append(",\"rolloutsPerSecond\":").append(number(rollouts * 1e9 / Math.max(1, search)));
+        json.append(",\"searchNanos\":").append(search);
+        json.append(",\"selectionNanos\":").append(selection);
+        json.append(",\"expansionNanos\":").append(expansion);
+        json.append(",\"simulationNanos\":").append(simulation);
+        json.append(",\"backpropagationNanos\":").append(backpropagation);
+        json.append(",\"meanTreeSize\":").append(number((double) nodes / n));
+        json.append(",\"maxTreeSize\":").append(maxTreeSize);
+        json.append(",\"maxDepth\":").append(maxDepth);
+        json.append(",\"branchingFactor\":").append(number(innerNodes == 0 ? 0 : (double) edges / innerNodes));
+        json.append(",\"meanTreeBytes\":").append(number((double) bytes / n));
+        json.append(",\"maxTreeBytes\":").append(maxBytes);
+        json.append(",\"stops\":{");
+        String separator = "";
+        for (Map.Entry<SearchStats.Stop, Integer> stop : getStops().entrySet()) {
+            json.append(separator).append('"').append(stop.getKey()).append("\":").append(stop.getValue());
+            separator = ",";
+        }
+        json.append("}},\"decisions\":[");
+
+        separator = "";
+        for (SearchStats s : decisions) {
+            json.append(separator).append('{');
+            json.append("\"tick\":").append(s.tick);
+            json.append(",\"level\":").append(s.level);
+            json.append(",\"mode\":\"").append(s.mode).append('"');
+            json.append(",\"stop\":\"").append(s.stop).append('"');
+            json.append(",\"iterations\":").append(s.iterations);
+            json.append(",\"rollouts\":").append(s.rollouts);
+            json.append(",\"rolloutSteps\":").append(s.rolloutSteps);
+            json.append(",\"searchNanos\":").append(s.searchNanos);
+            json.append(",\"selectionNanos\":").append(s.selectionNanos);
+            json.append(",\"expansionNanos\":").append(s.expansionNanos);
+            json.append(",\"simulationNanos\":").append(s.simulationNanos);
+            json.append(",\"backpropagationNanos\":").append(s.backpropagationNanos);
+            json.append(",\"treeSize\":").append(s.treeSize);
+            json.append(",\"maxDepth\":").append(s.maxDepth);
+            json.append(",\"branchingFactor\":").append(number(s.getBranchingFactor()));
+            json.append(",\"treeBytes\":").append(s.getTreeBytes());
+            json.append('}');
+            separator = ",";
+        }
+        json.append("]}");
+
+        return json.toString();
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -10,7 +10,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Node class of MCTS agent. node consists of variables that represent current state and relative score
@@ -23,13 +25,23 @@ public class Node {
      */
     public Node parent;
     public Game game;
-    public int visitCount = 0;
     public MOVE action = MOVE.UP;
-    public double reward = -1.0f;
-    public ArrayList<Node> children = new ArrayList<>();
+    public List<Node> children = new CopyOnWriteArrayList<>();
     public ArrayList<MOVE> triedActions = new ArrayList<>();
     public ArrayList<MOVE> untriedActions = new ArrayList<>();
 
+    /**
+     * visit and reward counters are atomic so several workers can share one tree.
+     * the reward is kept as the raw bits of a double.
+     */
+    private final AtomicInteger visitCount = new AtomicInteger();
+    private final AtomicLong reward = new AtomicLong(Double.doubleToRawLongBits(-1.0));
+
+    /**
+     * number of expansions made in the tree this node belongs to (shared by all nodes of a tree).
+     */
+    final AtomicInteger treeSize;
+
     /**
      * constructor function
      * @param parent parent node
@@ -38,13 +50,65 @@ public class Node {
     public Node(Node parent, Game game) {
         this.parent = parent;
         this.game = game;
+        this.treeSize = parent == null ? new AtomicInteger() : parent.treeSize;
     }
 
     /**
      * increment the visit count.
      */
     public void incrementVisitCount() {
-        this.visitCount++;
+        visitCount.incrementAndGet();
+    }
+
+    /**
+     * @return number of visits through this node (including pending virtual losses).
+     */
+    public int getVisitCount() {
+        return visitCount.get();
+    }
+
+    /**
+     * @return accumulated reward of all simulations made through this node.
+     */
+    public double getReward() {
+        return Double.longBitsToDouble(reward.get());
+    }
+
+    /**
+     * overwrite the accumulated reward.
+     * @param value new reward
+     */
+    public void setReward(double value) {
+        reward.set(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * atomically add to the accumulated reward.
+     * @param value reward to add
+     */
+    public void addReward(double value) {
+        long prev, next;
+        do {
+            prev = reward.get();
+            next = Double.doubleToRawLongBits(Double.longBitsToDouble(prev) + value);
+        } while (!reward.compareAndSet(prev, next));
+    }
+
+    /**
+     * virtual loss: count pending visits without any reward, so other workers of a shared
+     * tree are steered away from the path currently being simulated.
+     * @param loss number of virtual visits
+     */
+    public void addVirtualLoss(int loss) {
+        visitCount.addAndGet(loss);
+    }
+
+    /**
+     * replace the virtual loss by the real visit once the simulation is backpropagated.
+     * @param loss number of virtual visits added during selection
+     */
+    public void revertVirtualLoss(int loss) {
+        visitCount.addAndGet(1 - loss);
     }
 
     /**
@@ -74,12 +138,17 @@ public class Node {
      */
     public Node expend() {
 
-        MOVE nextMove = newMove(game);
+        MOVE nextMove;
+        synchronized (this) {
+            // another worker may have taken the last untried move in the meantime
+            if (isFullyExpanded()) return this;
+            nextMove = newMove(game);
+        }
 
         if (nextMove != game.getPacmanLastMoveMade().opposite()) {
             Node expandedChild = getNearestJunction(nextMove);
             expandedChild.action = nextMove;
-            MctsAgent.tree_depth++;
+            treeSize.incrementAndGet();
             this.children.add(expandedChild);
             expandedChild.parent = this;
             return expandedChild;
@@ -96,38 +165,15 @@ public class Node {
     public Node getNearestJunction(MOVE dir) {
 
         Game state = game.copy();
-        Controller<EnumMap<GHOST, MOVE>> ghostController = MctsAgent.ghosts;
-
-        int from = state.getPacmanPosition();
-        int current = from;
-        MOVE currentPacmanDir = dir;
+        Controller<EnumMap<GHOST, MOVE>> ghostController = MctsAgent.ghosts.get();
 
         //Simulation reward variables
         int prevPills = state.getAmountOfRemainingPills();
         int prevCapsules = state.getAmountOfRemainingPowerPills();
         int prevLives = state.getLivesRemaining();
 
-        // use current == from , so we skip the junction we are currently in
-        while (!state.isJunction(current) || current == from) {
-
-            //make pacman follow the path
-            ArrayList<MOVE> moves = new ArrayList<>(
-                    Arrays.asList(state.getPossibleMoves(state.getPacmanPosition()))
-            );
-
-            if (!moves.contains(currentPacmanDir)) {
-                moves.remove(state.getPacmanLastMoveMade().opposite());
-                assert moves.size() == 1; // along a path there is only one possible way remaining
-                currentPacmanDir = moves.get(0);
-            }
-
-            //advance game state
-            state.advanceGame(currentPacmanDir,
-                    ghostController.getMove(state,
-                            System.currentTimeMillis()));
-
-            current = state.getPacmanPosition();
-        }
+        // skips the junction we are currently in and stops at the next one
+        state.advanceToJunction(dir, ghostController, System.currentTimeMillis());
 
         int currLives = state.getLivesRemaining();
         int currPills = state.getAmountOfRemainingPills();
@@ -136,15 +182,15 @@ public class Node {
 
         //dead during transition
         if (currLives < prevLives || currCapsules < prevCapsules && ghostDistAvg(state) > 100) {
-            node.reward = 0.0f;
+            node.setReward(0.0f);
         }
         //alive but no pills eaten
         else if (currPills == prevPills) {
-            node.reward = 0.2f;
+            node.setReward(0.2f);
         }
         //pills eaten and alive
         else {
-            node.reward = 1.0f;
+            node.setReward(1.0f);
         }
 
         return node;
@@ -155,11 +201,11 @@ public class Node {
      * @return boolean.
      */
     public boolean isGameOver() {
-        return game.isPacmanDead() || game.getRemainingPillsIndices().length == 0;
+        return game.isPacmanDead() || game.getAmountOfRemainingPills() == 0;
     }
 
     public MOVE generateRandomMove() {
-        int randomIndex = new Random().nextInt(untriedActions.size());
+        int randomIndex = RolloutEngine.current().random().nextInt(untriedActions.size());
         MOVE untriedMove = untriedActions.get(randomIndex);
         triedActions.add(untriedMove);
         return untriedMove;
@@ -190,7 +236,7 @@ public class Node {
      * check if our node is fully expended or not.
      * @return boolean
      */
-    public boolean isFullyExpanded() {
+    public synchronized boolean isFullyExpanded() {
         int pacman = game.getPacmanPosition();
         MOVE[] possibleMoves = game.getPossibleMoves(pacman);
         return possibleMoves.length == children.size() || possibleMoves.length == triedActions.size();
@@ -0,0 +1,177 @@
+package Agents.MCTS;
+
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.Game;
+import pacman.game.util.SplitMix64;
+
+import java.util.EnumMap;
+
+/**
+ * Rollout engine of the MCTS agent. Plays random pacman moves against a starter-ghosts policy on a
+ * reusable scratch state, which is reset from the node's state before every rollout. Moves are chosen
+ * from primitive arrays with the engine's own random generator, so a rollout in steady state does not
+ * allocate. The generator is also used by the rest of the search on the engine's thread, so seeding it
+ * (see setSeed()) makes a single threaded search reproducible. An engine is not thread safe, use one
+ * per thread (see current()).
+ */
+public final class RolloutEngine {
+
+    //starter ghosts policy parameters
+    private static final float CONSISTENCY = 0.5f;
+    private static final int PILL_PROXIMITY = 15;
+
+    private static final MOVE[] ALL_MOVES = MOVE.values();
+    private static final GHOST[] ALL_GHOSTS = GHOST.values();
+
+    private static final ThreadLocal<RolloutEngine> ENGINES = ThreadLocal.withInitial(RolloutEngine::new);
+
+    private Game scratch;
+    private final SplitMix64 rnd = new SplitMix64();
+    private final MOVE[] ghostChoices = new MOVE[ALL_GHOSTS.length];
+    private final EnumMap<GHOST, MOVE> ghostMoves = new EnumMap<>(GHOST.class);
+
+    //capacity metrics
+    private long rollouts = 0;
+    private long steps = 0;
+
+    /**
+     * @return the engine of the calling thread.
+     */
+    public static RolloutEngine current() {
+        return ENGINES.get();
+    }
+
+    /**
+     * run a rollout from a state without modifying it.
+     * @param from state to start from
+     * @param maxSteps maximum number of game ticks to simulate
+     * @return score of the rollout: 0 if pacman died, 1 if the maze was cleared, otherwise
+     * the fraction of the remaining pills that was eaten.
+     */
+    public float rollout(Game from, int maxSteps) {
+        if (scratch == null) scratch = from.copy();
+        else from.copyInto(scratch);
+
+        Game state = scratch;
+        int pillsBefore = state.getAmountOfRemainingPills();
+        int livesBefore = state.getLivesRemaining();
+        int step = 0;
+
+        while (!state.gameOver() && step < maxSteps) {
+            MOVE pacmanMove = ALL_MOVES[rnd.nextInt(ALL_MOVES.length)];
+            chooseGhostMoves(state);
+            for (int i = 0; i < ALL_GHOSTS.length; i++) {
+                ghostMoves.put(ALL_GHOSTS[i], ghostChoices[i]);
+            }
+            state.advanceGame(pacmanMove, ghostMoves);
+            step++;
+        }
+
+        rollouts++;
+        steps += step;
+
+        // DEATH CONDITION
+        if (state.getLivesRemaining() < livesBefore) {
+            return 0.0f;
+        }
+
+        // Maze level completed
+        int pillsAfter = state.getAmountOfRemainingPills();
+        if (pillsAfter == 0) {
+            return 1.0f;
+        }
+
+        //reward based on pills eaten
+        return 1.0f - ((float) pillsAfter / ((float) pillsBefore));
+    }
+
+    /**
+     * starter ghosts policy: retreat when edible or when pacman is close to a power pill, otherwise
+     * attack with some probability or take a random legal move. Ghosts that need no action keep going.
+     */
+    private void chooseGhostMoves(Game state) {
+        int pacman = state.getPacmanPosition();
+        boolean closeToPower = closeToPower(state, pacman);
+
+        for (int i = 0; i < ALL_GHOSTS.length; i++) {
+            GHOST ghost = ALL_GHOSTS[i];
+            MOVE lastMove = state.getGhostLastMoveMade(ghost);
+
+            if (!state.doesGhostRequireAction(ghost)) {
+                ghostChoices[i] = lastMove;
+                continue;
+            }
+
+            int node = state.getGhostCurrentNodeIndex(ghost);
+            if (state.getGhostEdibleTime(ghost) > 0 || closeToPower) {
+                ghostChoices[i] = greedyMove(state, node, pacman, lastMove, false);
+            } else if (rnd.nextFloat() < CONSISTENCY) {
+                ghostChoices[i] = greedyMove(state, node, pacman, lastMove, true);
+            } else {
+                MOVE[] possibleMoves = state.getPossibleMoves(node, lastMove);
+                ghostChoices[i] = possibleMoves[rnd.nextInt(possibleMoves.length)];
+            }
+        }
+    }
+
+    /**
+     * same choice as Game.getApproximateNextMove{Towards,AwayFrom}Target with DM.PATH, without
+     * iterating over the node's EnumMap.
+     */
+    private static MOVE greedyMove(Game state, int from, int target, MOVE lastMove, boolean towards) {
+        MOVE[] moves = state.getPossibleMoves(from, lastMove);
+        MOVE best = null;
+        int bestDistance = towards ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+
+        for (MOVE move : moves) {
+            int distance = state.getShortestPathDistance(state.getNeighbour(from, move), target);
+            if (towards ? distance < bestDistance : distance > bestDistance) {
+                bestDistance = distance;
+                best = move;
+            }
+        }
+        return best;
+    }
+
+    private static boolean closeToPower(Game state, int pacman) {
+        int[] powerPills = state.getPowerPillIndices();
+
+        for (int i = 0; i < powerPills.length; i++) {
+            if (state.isPowerPillStillAvailable(i)
+                    && state.getShortestPathDistance(powerPills[i], pacman) < PILL_PROXIMITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the random generator of this engine, only to be used on its thread.
+     */
+    public SplitMix64 random() {
+        return rnd;
+    }
+
+    /**
+     * seed the random generator of this engine.
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        rnd.setSeed(seed);
+    }
+
+    /**
+     * @return number of rollouts run by this engine.
+     */
+    public long getRollouts() {
+        return rollouts;
+    }
+
+    /**
+     * @return number of game ticks simulated by this engine.
+     */
+    public long getSteps() {
+        return steps;
+    }
+}
@@ -0,0 +1,176 @@
+package Agents.MCTS;
+
+import pacman.game.Game;
+
+/**
+ * Statistics of one MCTS decision (see MctsTelemetry): how much searching was done, the shape of the
+ * resulting tree and where the time went. Times are wall clock nanoseconds; the phases of the workers
+ * of a parallel search are added up, so they may exceed the search time. The memory of the tree is an
+ * estimate, NODE_BYTES per node plus the children lists.
+ */
+public final class SearchStats {
+
+    /**
+     * why a search stopped.
+     * TIME: it ran out of time. TREE_LIMIT: the tree reached TREE_LIMIT expansions.
+     * INTERRUPTED: the move was cancelled. TERMINAL: there was nothing left to select.
+     */
+    public enum Stop {
+        TIME, TREE_LIMIT, INTERRUPTED, TERMINAL
+    }
+
+    /**
+     * estimated bytes held by a node without children, assuming compressed references: the node (48),
+     * its visit and reward counters (16 + 24), its two action lists (2 * (24 + 56)), its empty list of
+     * children (56) and its copy of the game (40 + packed state). A child adds 4 to its parent's list.
+     */
+    public static final int NODE_BYTES = 48 + 16 + 24 + 2 * (24 + 56) + 56 + 40 + (16 + 4 * Game.STATE_SIZE);
+
+    int tick, level;
+    MctsAgent.SearchMode mode;
+    Stop stop = Stop.TIME;
+    long iterations, rollouts, rolloutSteps;
+    long searchNanos, selectionNanos, expansionNanos, simulationNanos, backpropagationNanos;
+    int treeSize, maxDepth, innerNodes, edges;
+    //set once the decision is recorded, after which workers no longer add to it
+    boolean recorded;
+
+    SearchStats() {
+    }
+
+    SearchStats(Game game, MctsAgent.SearchMode mode) {
+        this.tick = game.getTotalTime();
+        this.level = game.getCurrentLevel();
+        this.mode = mode;
+    }
+
+    /**
+     * add the counters of a worker to these.
+     * @param worker the statistics collected by one worker
+     */
+    synchronized void add(SearchStats worker) {
+        if (recorded) return;
+        if (worker.stop == Stop.TERMINAL) stop = Stop.TERMINAL;
+        iterations += worker.iterations;
+        rollouts += worker.rollouts;
+        rolloutSteps += worker.rolloutSteps;
+        selectionNanos += worker.selectionNanos;
+        expansionNanos += worker.expansionNanos;
+        simulationNanos += worker.simulationNanos;
+        backpropagationNanos += worker.backpropagationNanos;
+    }
+
+    /**
+     * add the shape of a tree to these.
+     * @param node the root of the tree
+     * @param depth the depth of the node
+     */
+    void addTree(Node node, int depth) {
+        treeSize++;
+        maxDepth = Math.max(maxDepth, depth);
+
+        int children = node.children.size();
+        if (children > 0) {
+            innerNodes++;
+            edges += children;
+        }
+        for (Node child : node.children) {
+            addTree(child, depth + 1);
+        }
+    }
+
+    /**
+     * @return the game time step of the decision.
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * @return the level of the decision.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public MctsAgent.SearchMode getMode() {
+        return mode;
+    }
+
+    public Stop getStop() {
+        return stop;
+    }
+
+    /**
+     * @return number of selection, expansion, simulation and backpropagation rounds.
+     */
+    public long getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return number of rollouts run, fewer than iterations if some ended in a dead node.
+     */
+    public long getRollouts() {
+        return rollouts;
+    }
+
+    /**
+     * @return number of game ticks simulated by the rollouts.
+     */
+    public long getRolloutSteps() {
+        return rolloutSteps;
+    }
+
+    public double getRolloutsPerSecond() {
+        return rollouts * 1e9 / Math.max(1, searchNanos);
+    }
+
+    public long getSearchNanos() {
+        return searchNanos;
+    }
+
+    public long getSelectionNanos() {
+        return selectionNanos;
+    }
+
+    public long getExpansionNanos() {
+        return expansionNanos;
+    }
+
+    public long getSimulationNanos() {
+        return simulationNanos;
+    }
+
+    public long getBackpropagationNanos() {
+        return backpropagationNanos;
+    }
+
+    /**
+     * @return number of nodes in the tree (all trees for ROOT_PARALLEL), including the root.
+     */
+    public int getTreeSize() {
+        return treeSize;
+    }
+
+    /**
+     * @return depth of the deepest node, the root being at depth 0.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return mean number of children of the nodes that have any.
+     */
+    public double getBranchingFactor() {
+        return innerNodes == 0 ? 0 : (double) edges / innerNodes;
+    }
+
+    /**
+     * @return estimated bytes held by the nodes of the tree.
+     */
+    public long getTreeBytes() {
+        return (long) treeSize * NODE_BYTES + 4L * edges;
+    }
+}
@@ -5,8 +5,9 @@ import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
 
+import static pacman.game.Constants.NUM_GHOSTS;
+
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.EnumMap;
 
 /**
@@ -20,6 +21,11 @@ public class MinimaxAgent extends Controller<MOVE> {
      */
     public int treeDepth;
 
+    /**
+     * ghosts moves of the child being searched, reused for every child.
+     */
+    private final EnumMap<GHOST, MOVE> ghostMoves = new EnumMap<>(GHOST.class);
+
     /**
      * constructor
      * @param d: depth
@@ -46,7 +52,7 @@ public class MinimaxAgent extends Controller<MOVE> {
      * @param state: the game state of which we determine the quality.
      * @return the evaluation score of that state.
      */
-    public static Integer evaluationFunction(Game state) {
+    public static int evaluationFunction(Game state) {
         if (state.gameOver()) {
             if (state.isPacmanDead())
                 return Integer.MIN_VALUE;
@@ -54,40 +60,15 @@ public class MinimaxAgent extends Controller<MOVE> {
                 return Integer.MAX_VALUE;
         }
 
+        LeafEvaluator leaf = LeafEvaluator.current().evaluate(state);
+
         int currentScore = state.getScore();
         int powerPillsLeft = state.getAmountOfRemainingPowerPills();
         int pillsLeft = state.getAmountOfRemainingPills();
 
-        int pacmanIndex = state.getPacmanPosition();
-
-
-        ArrayList<Integer> distanceToFood = new ArrayList<>();
-        for (int i : state.getRemainingPillsIndices()) {
-            distanceToFood.add(state.getShortestPathDistance(pacmanIndex, i));
-        }
-        int closestFood = Collections.min(distanceToFood);
-
-
-        ArrayList<Integer> distancesToScaredGhosts = new ArrayList<>();
-        ArrayList<Integer> distancesToActiveGhosts = new ArrayList<>();
-        for (GHOST g : state.getGhosts()) {
-            int ghostIndex = state.getGhostCurrentNodeIndex(g);
-            int d = state.getShortestPathDistance(pacmanIndex, ghostIndex);
-            if (state.getGhostEdibleTime(g) > 0) {
-                distancesToScaredGhosts.add(d);
-            } else {
-                distancesToActiveGhosts.add(d);
-            }
-        }
-
-        int closestActiveGhost = Integer.MAX_VALUE, closestScaredGhost = Integer.MAX_VALUE;
-        if (distancesToActiveGhosts.size() > 0) {
-            closestActiveGhost = Collections.min(distancesToActiveGhosts);
-        }
-
-        if (distancesToScaredGhosts.size() > 0) {
-            closestScaredGhost = Collections.min(distancesToScaredGhosts);
-        }
+        int closestFood = leaf.getClosestPill();
+        int closestActiveGhost = leaf.getClosestActiveGhost();
+        int closestScaredGhost = leaf.getClosestEdibleGhost();
 
         return (int) (currentScore +
                 -1.5 * closestFood +
@@ -130,9 +111,7 @@ public class MinimaxAgent extends Controller<MOVE> {
         }
 
         for (MOVE m : moves) {
-            Game state = game.copy();
             MOVE pacmanMove = MOVE.NEUTRAL;
-            EnumMap<GHOST, MOVE> ghostMoves = new EnumMap<>(GHOST.class);
             for (GHOST g : game.getGhosts()) {
                 ghostMoves.put(g, MOVE.NEUTRAL);
             }
@@ -141,8 +120,10 @@ public class MinimaxAgent extends Controller<MOVE> {
             } else {
                 ghostMoves.put(currentGhost, m);
             }
-            state.advanceGame(pacmanMove, ghostMoves);
-            MoveScorePair<MOVE, Integer> pair = minimax(state, agentIndex + 1, depth);
+            // make/unmake on the same game instead of copying it for every child
+            game.advanceGame(pacmanMove, ghostMoves);
+            MoveScorePair<MOVE, Integer> pair = minimax(game, agentIndex + 1, depth);
+            game.undoAdvance();
             int value = pair.score;
             actionsValues.add(new MoveScorePair<>(m, value));
         }
@@ -171,6 +152,7 @@ public class MinimaxAgent extends Controller<MOVE> {
      */
     @Override
     public MOVE getMove(Game game, long timeDue) {
+        game.enableUndo(this.treeDepth * (NUM_GHOSTS + 1));
         return minimax(game, 0, this.treeDepth).move;
     }
 
@@ -0,0 +1,94 @@
+package Agents;
+
+import pacman.game.Constants.MOVE;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size transposition table for the search agents, keyed by the Zobrist hash of a position
+ * (see Game.getZobristHash()). Entries are kept in parallel primitive arrays indexed by the low bits
+ * of the key, so probing and storing do not allocate. An entry holds the score of the position, the
+ * number of plies it was searched to, whether the score is exact or a bound, and the best move found.
+ * On a collision the deeper entry is kept, unless the stored one is from an earlier search.
+ */
+public class TranspositionTable {
+
+    public static final int EXACT = 0, LOWER_BOUND = 1, UPPER_BOUND = 2;
+
+    private static final MOVE[] MOVES = MOVE.values();
+
+    private final long[] keys;
+    private final int[] scores;
+    /**
+     * packed entry data: bits 0-7 plies, 8-9 bound, 10-12 move ordinal + 1 (0 = none),
+     * 16-31 generation.
+     */
+    private final int[] data;
+    private final int mask;
+    private int generation = 1;
+
+    /**
+     * constructor function
+     * @param bits: log2 of the number of entries
+     */
+    public TranspositionTable(int bits) {
+        int size = 1 << bits;
+        this.keys = new long[size];
+        this.scores = new int[size];
+        this.data = new int[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * start a new search: entries of earlier searches stay valid but are replaced first.
+     */
+    public void newSearch() {
+        generation = generation % 0xFFFF + 1;
+    }
+
+    /**
+     * @return index of the entry stored for key, or -1 if there is none.
+     */
+    public int probe(long key) {
+        int index = (int) key & mask;
+        return data[index] != 0 && keys[index] == key ? index : -1;
+    }
+
+    public int getScore(int index) {
+        return scores[index];
+    }
+
+    public int getPlies(int index) {
+        return data[index] & 0xFF;
+    }
+
+    public int getBound(int index) {
+        return (data[index] >>> 8) & 0x3;
+    }
+
+    /**
+     * @return best move of the entry, or null if none was recorded.
+     */
+    public MOVE getMove(int index) {
+        int move = (data[index] >>> 10) & 0x7;
+        return move == 0 ? null : MOVES[move - 1];
+    }
+
+    public void store(long key, int plies, int bound, int score, MOVE move) {
+        int index = (int) key & mask;
+        int stored = data[index];
+
+        if (stored != 0 && keys[index] != key && stored >>> 16 == generation && (stored & 0xFF) > plies) {
+            return;
+        }
+
+        keys[index] = key;
+        scores[index] = score;
+        data[index] = generation << 16 | (move == null ? 0 : move.ordinal() + 1) << 10 | bound << 8
+                | Math.min(plies, 0xFF);
+    }
+
+    public void clear() {
+        Arrays.fill(data, 0);
+    }
+}
@@ -8,11 +8,18 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.LongFunction;
 
 import Agents.AlphaBetaAgent;
 import Agents.MinimaxAgent;
 import Agents.MCTS.MctsAgent;
+import Agents.MCTS.MctsConstants;
 import pacman.controllers.Controller;
 import pacman.controllers.HumanController;
 import pacman.controllers.examples.AggressiveGhosts;
@@ -21,6 +28,11 @@ import pacman.controllers.examples.RandomGhosts;
 import pacman.controllers.examples.StarterGhosts;
 import pacman.game.Game;
 import pacman.game.GameView;
+import pacman.game.ReplayReader;
+import pacman.game.ReplayWriter;
+import pacman.game.util.SplitMix64;
+import pacman.game.util.Stats;
+import pacman.game.util.VirtualClock;
 import static pacman.game.Constants.*;
 import Agents.HeuristicAgent;
 
@@ -49,8 +61,21 @@ public class Executor
 		boolean timeIt = false;
 		// how many games to run if visual == false
 		int numTrials=100;
+		// number of games played in parallel if visual == false
+		int experimentThreads = Runtime.getRuntime().availableProcessors();
+		// if visual == false, play the games on a virtual clock instead of in real time
+		boolean headless = true;
+		// load the next maze in the background when a level is about to end
+		boolean prefetchMazes = true;
 		// depth of agents such as Minimax and AlphaBeta
 		int depth = 2;
+		// AlphaBetaAgent: deepen iteratively until the move is due, up to maxDepth
+		boolean iterativeDeepening = false;
+		int maxDepth = 8;
+		// MctsAgent search mode: SEQUENTIAL, ROOT_PARALLEL, TREE_PARALLEL
+		MctsAgent.SearchMode mctsMode = MctsAgent.SearchMode.SEQUENTIAL;
+		// number of worker threads used by the parallel MctsAgent modes
+		int mctsWorkers = MctsConstants.NUM_WORKERS;
 
 		// Choose pacman controller:
 		// MctsAgent, HeuristicAgent, MinimaxAgent, AlphaBetaAgent
@@ -62,45 +87,63 @@ public class Executor
 
 		// Do not change code below
 		Executor exec=new Executor();
-		Controller<MOVE> agent;
+		Game.setPrefetchMazes(prefetchMazes);
+		// the factories create a controller from a seed for its random generator
+		LongFunction<Controller<MOVE>> agentFactory;
 		switch (agentName) {
 			case "MctsAgent":
-				agent = new MctsAgent();
+				agentFactory = seed -> {
+					MctsAgent agent = new MctsAgent(mctsMode, mctsWorkers);
+					agent.setSeed(seed);
+					return agent;
+				};
 				break;
 			case "HeuristicAgent":
-				agent = new HeuristicAgent();
+				agentFactory = seed -> new HeuristicAgent(new SplitMix64(seed));
 				break;
 			case "MinimaxAgent":
-				agent = new MinimaxAgent(depth);
+				agentFactory = seed -> new MinimaxAgent(depth);
 				break;
 			default:
-				agent = new AlphaBetaAgent(depth);
+				agentFactory = seed -> iterativeDeepening ? new AlphaBetaAgent(maxDepth, true) : new AlphaBetaAgent(depth);
 				break;
 		}
 
-		Controller<EnumMap<GHOST, MOVE>> ghosts;
+		LongFunction<Controller<EnumMap<GHOST, MOVE>>> ghostsFactory;
 		switch (ghostType) {
 			case "RandomGhosts":
-				ghosts = new RandomGhosts();
+				ghostsFactory = seed -> new RandomGhosts(new SplitMix64(seed));
 				break;
 			case "AggressiveGhosts":
-				ghosts = new AggressiveGhosts();
+				ghostsFactory = seed -> new AggressiveGhosts(new SplitMix64(seed));
 				break;
 			case "StarterGhosts":
-				ghosts = new StarterGhosts();
+				ghostsFactory = seed -> new StarterGhosts(new SplitMix64(seed));
 				break;
 			default:
-				ghosts = new Legacy2TheReckoning();
+				ghostsFactory = seed -> new Legacy2TheReckoning();
 				break;
 		}
 
+		if (!visual)
+		{
+			exec.runParallelExperiment(agentFactory, ghostsFactory, numTrials, experimentThreads, headless);
+			return;
+		}
+
+		Controller<MOVE> agent = agentFactory.apply(System.nanoTime());
+		Controller<EnumMap<GHOST, MOVE>> ghosts = ghostsFactory.apply(System.nanoTime());
 
-		if (visual && timeIt)
+		if (timeIt)
 			exec.runGameTimed(agent, ghosts, visual);
-		else if (visual)
-			exec.runGame(agent, ghosts, visual, delay);
 		else
-			exec.runExperiment(agent, ghosts, numTrials);
+			exec.runGame(agent, ghosts, visual, delay);
+
+		if (agent instanceof MctsAgent)
+		{
+			System.out.println("MCTS simulations per second: "+(long)((MctsAgent)agent).getSimulationsPerSecond());
+			((MctsAgent)agent).shutdown();
+		}
 	}
 	
     /**
@@ -136,6 +179,150 @@ public class Executor
 		
 		System.out.println(avgScore/trials);
     }
+
+    /**
+     * Same as runExperiment but plays the trials in parallel on a pool of the given number of threads. Every trial
+     * gets its own game, seeded from a sequence generated up front (the same seeds runExperiment uses), and its own
+     * controllers, created by the factories from seeds derived from the game's seed; the factories must seed the
+     * controllers' random generators with them. The results are collected by trial index. Hence the results only
+     * depend on the seeds, not on the number of threads or the order in which trials finish, as long as the
+     * controllers do not depend on how much time they get: moves are timed on the wall clock here, so play
+     * controllers that search until their move is due (e.g. MctsAgent, iterative deepening) headless.
+     *
+     * @param pacManFactory Creates the Pac-Man controller of a trial from a seed
+     * @param ghostFactory Creates the Ghosts controller of a trial from a seed
+     * @param trials The number of trials to be executed
+     * @param threads The number of games played at the same time
+     * @return the results of all trials
+     */
+    public ExperimentResults runParallelExperiment(LongFunction<Controller<MOVE>> pacManFactory,
+    		LongFunction<Controller<EnumMap<GHOST,MOVE>>> ghostFactory,int trials,int threads)
+    {
+    	return runParallelExperiment(pacManFactory,ghostFactory,trials,threads,false);
+    }
+
+    /**
+     * Same as above, optionally playing the trials headless (see runGameHeadless): the controllers then measure
+     * their time on a virtual clock, so controllers that search until their move is due give the same results in
+     * every run as well, and the trials take no longer than the controllers' computations.
+     *
+     * @param pacManFactory Creates the Pac-Man controller of a trial from a seed
+     * @param ghostFactory Creates the Ghosts controller of a trial from a seed
+     * @param trials The number of trials to be executed
+     * @param threads The number of games played at the same time
+     * @param headless Whether to play the trials on a virtual clock
+     * @return the results of all trials
+     */
+    public ExperimentResults runParallelExperiment(LongFunction<Controller<MOVE>> pacManFactory,
+    		LongFunction<Controller<EnumMap<GHOST,MOVE>>> ghostFactory,int trials,int threads,boolean headless)
+    {
+    	Random rnd=new Random(0);
+    	long[] seeds=new long[trials];
+
+    	for(int i=0;i<trials;i++)
+    		seeds[i]=rnd.nextLong();
+
+    	ExperimentResults results=new ExperimentResults(trials);
+    	List<Callable<Void>> tasks=new ArrayList<Callable<Void>>(trials);
+
+    	for(int i=0;i<trials;i++)
+    	{
+    		final int trial=i;
+
+    		tasks.add(() -> {
+    			// the controllers are created on the thread playing the trial, so that
+    			// seeding a thread-local generator (MctsAgent.setSeed) seeds the one used
+    			SplitMix64 controllerSeeds=new SplitMix64(seeds[trial]);
+    			Controller<MOVE> pacManController=pacManFactory.apply(controllerSeeds.nextLong());
+    			Controller<EnumMap<GHOST,MOVE>> ghostController=ghostFactory.apply(controllerSeeds.nextLong());
+    			Game game;
+
+    			if(headless)
+    				game=runGameHeadless(pacManController,ghostController,seeds[trial],
+    						new VirtualClock(VirtualClock.DEFAULT_READ_COST));
+    			else
+    			{
+    				game=new Game(seeds[trial]);
+
+    				while(!game.gameOver())
+    				{
+    					game.advanceGame(pacManController.getMove(game.copy(),System.currentTimeMillis()+DELAY),
+    							ghostController.getMove(game.copy(),System.currentTimeMillis()+DELAY));
+    				}
+    			}
+
+    			if(pacManController instanceof MctsAgent)
+    				((MctsAgent)pacManController).shutdown();
+
+    			results.scores[trial]=game.getScore();
+    			results.levels[trial]=game.getCurrentLevel();
+    			results.timesAlive[trial]=game.getTotalTime();
+    			return null;
+    		});
+    	}
+
+    	ForkJoinPool pool=new ForkJoinPool(threads);
+
+    	try
+    	{
+    		for(Future<Void> future : pool.invokeAll(tasks))
+    			future.get();
+    	}
+    	catch(InterruptedException e)
+    	{
+    		Thread.currentThread().interrupt();
+    		throw new RuntimeException(e);
+    	}
+    	catch(ExecutionException e)
+    	{
+    		throw new RuntimeException(e.getCause());
+    	}
+    	finally
+    	{
+    		pool.shutdown();
+    	}
+
+    	for(int i=0;i<trials;i++)
+    		System.out.println(i+"\t"+results.scores[i]);
+
+    	System.out.println("score\t"+results.getScore());
+    	System.out.println("level\t"+results.getLevel());
+    	System.out.println("time\t"+results.getTimeAlive());
+
+    	return results;
+    }
+
+    /**
+     * Outcome of the trials of an experiment, indexed by trial.
+     */
+    public static class ExperimentResults
+    {
+    	public final int[] scores;
+    	public final int[] levels;
+    	public final int[] timesAlive;
+
+    	public ExperimentResults(int trials)
+    	{
+    		scores=new int[trials];
+    		levels=new int[trials];
+    		timesAlive=new int[trials];
+    	}
+
+    	public Stats getScore()
+    	{
+    		return new Stats(scores);
+    	}
+
+    	public Stats getLevel()
+    	{
+    		return new Stats(levels);
+    	}
+
+    	public Stats getTimeAlive()
+    	{
+    		return new Stats(timesAlive);
+    	}
+    }
 	
 	/**
 	 * Run a game in asynchronous mode: the game waits until a move is returned. In order to slow thing down in case
@@ -187,9 +374,6 @@ public class Executor
 		if(pacManController instanceof HumanController)
 			gv.getFrame().addKeyListener(((HumanController)pacManController).getKeyboardInput());
 				
-		new Thread(pacManController).start();
-		new Thread(ghostController).start();
-		
 		while(!game.gameOver())
 		{
 			pacManController.update(game.copy(),System.currentTimeMillis()+DELAY);
@@ -212,6 +396,8 @@ public class Executor
 		
 		pacManController.terminate();
 		ghostController.terminate();
+
+		printTimings(pacManController,ghostController);
 	}
 	
     /**
@@ -235,9 +421,6 @@ public class Executor
  		if(pacManController instanceof HumanController)
  			gv.getFrame().addKeyListener(((HumanController)pacManController).getKeyboardInput());
  				
- 		new Thread(pacManController).start();
- 		new Thread(ghostController).start();
- 		
  		while(!game.gameOver())
  		{
  			pacManController.update(game.copy(),System.currentTimeMillis()+DELAY);
@@ -274,10 +457,61 @@ public class Executor
  		
  		pacManController.terminate();
  		ghostController.terminate();
+
+ 		printTimings(pacManController,ghostController);
  	}
     
+    /**
+     * Run a game synchronously on the calling thread, for offline evaluation: the controllers are called directly,
+     * one after the other, and their time budget runs on a virtual clock (see VirtualClock) instead of the wall
+     * clock, so nothing is slept or polled. Each time step, both controllers start at the same virtual time and
+     * their move is due DELAY ms later, as in the competition; the game then moves on at once. As in runExperiment,
+     * the moves are played even if a controller took longer than that.
+     *
+     * @param pacManController The Pac-Man controller
+     * @param ghostController The Ghosts controller
+     * @param seed The seed of the game
+     * @param clock The virtual clock, which must not be shared with other games
+     * @return the game, once it is over
+     */
+    public Game runGameHeadless(Controller<MOVE> pacManController,Controller<EnumMap<GHOST,MOVE>> ghostController,
+    		long seed,VirtualClock clock)
+    {
+    	Game game=new Game(seed);
+
+    	clock.install();
+
+    	try
+    	{
+    		while(!game.gameOver())
+    		{
+    			long start=clock.now();
+    			long due=start+DELAY;
+
+    			MOVE pacManMove=pacManController.getMove(game.copy(),due);
+
+    			// the controllers compute their moves at the same time
+    			long pacManEnd=clock.now();
+    			clock.set(start);
+
+    			EnumMap<GHOST,MOVE> ghostMoves=ghostController.getMove(game.copy(),due);
+
+    			game.advanceGame(pacManMove,ghostMoves);
+    			clock.set(Math.max(due,Math.max(pacManEnd,clock.now())));
+    		}
+    	}
+    	finally
+    	{
+    		VirtualClock.uninstall();
+    	}
+
+    	return game;
+    }
+
 	/**
-	 * Run a game in asynchronous mode and recorded.
+	 * Run a game in asynchronous mode and recorded. The replay is streamed to the file as the game is
+	 * played (see ReplayWriter), so a game cut short still leaves a replay of all but at most its
+	 * last ReplayWriter.KEYFRAME_INTERVAL time steps.
 	 *
      * @param pacManController The Pac-Man controller
      * @param ghostController The Ghosts controller
@@ -286,8 +520,18 @@ public class Executor
 	 */
 	public void runGameTimedRecorded(Controller<MOVE> pacManController,Controller<EnumMap<GHOST,MOVE>> ghostController,boolean visual,String fileName)
 	{
-		StringBuilder replay=new StringBuilder();
-		
+		ReplayWriter replay;
+
+		try
+		{
+			replay=new ReplayWriter(fileName);
+		}
+		catch(IOException e)
+		{
+			System.out.println("Could not save data!");
+			return;
+		}
+
 		Game game=new Game(0);
 		
 		GameView gv=null;
@@ -300,45 +544,84 @@ public class Executor
 				gv.getFrame().addKeyListener(((HumanController)pacManController).getKeyboardInput());
 		}		
 		
-		new Thread(pacManController).start();
-		new Thread(ghostController).start();
-		
-		while(!game.gameOver())
+		try
 		{
-			pacManController.update(game.copy(),System.currentTimeMillis()+DELAY);
-			ghostController.update(game.copy(),System.currentTimeMillis()+DELAY);
+			while(!game.gameOver())
+			{
+				pacManController.update(game.copy(),System.currentTimeMillis()+DELAY);
+				ghostController.update(game.copy(),System.currentTimeMillis()+DELAY);
+
+				try
+				{
+					Thread.sleep(DELAY);
+				}
+				catch(InterruptedException e)
+				{
+					e.printStackTrace();
+				}
+
+		        game.advanceGame(pacManController.getMove(),ghostController.getMove());	        
+		        
+		        if(visual)
+		        	gv.repaint();
+		        
+		        try
+		        {
+		        	if(replay!=null)
+		        		replay.write(game);
+		        }
+		        catch(IOException e)
+		        {
+		        	System.out.println("Could not save data!");
+
+		        	// release the file and the deflater; the replay is broken either way
+		        	try
+		        	{
+		        		replay.close();
+		        	}
+		        	catch(IOException ignored)
+		        	{
+		        	}
+
+		        	replay=null;
+		        }
+			}
+		}
+		finally
+		{
+			pacManController.terminate();
+			ghostController.terminate();
 
+			printTimings(pacManController,ghostController);
+
+			// keep what was recorded even if a controller failed
 			try
 			{
-				Thread.sleep(DELAY);
+				if(replay!=null)
+					replay.close();
 			}
-			catch(InterruptedException e)
+			catch(IOException e)
 			{
-				e.printStackTrace();
+				System.out.println("Could not save data!");
 			}
-
-	        game.advanceGame(pacManController.getMove(),ghostController.getMove());	        
-	        
-	        if(visual)
-	        	gv.repaint();
-	        
-	        replay.append(game.getGameState()+"\n");
 		}
-		
-		pacManController.terminate();
-		ghostController.terminate();
-		
-		saveToFile(replay.toString(),fileName,false);
 	}
 	
 	/**
-	 * Replay a previously saved game.
+	 * Replay a previously saved game, either a binary replay (see ReplayWriter) or one line of
+	 * Game.getGameState() per time step.
 	 *
 	 * @param fileName The file name of the game to be played
 	 * @param visual Indicates whether or not to use visuals
 	 */
 	public void replayGame(String fileName,boolean visual)
 	{
+		if(ReplayReader.isReplay(fileName))
+		{
+			replayGame(fileName,0,visual);
+			return;
+		}
+
 		ArrayList<String> timeSteps=loadReplay(fileName);
 		
 		Game game=new Game(0);
@@ -365,6 +648,67 @@ public class Executor
 		}
 	}
 	
+	/**
+	 * Replay a binary replay from the given time step on.
+	 *
+	 * @param fileName The file name of the game to be played
+	 * @param fromTick The time step to start at
+	 * @param visual Indicates whether or not to use visuals
+	 */
+	public void replayGame(String fileName,int fromTick,boolean visual)
+	{
+		try(ReplayReader replay=new ReplayReader(fileName))
+		{
+			Game game=new Game(0);
+
+			GameView gv=null;
+
+			if(visual)
+				gv=new GameView(game).showGame();
+
+			replay.seek(fromTick);
+
+			while(replay.next(game))
+			{
+				try
+				{
+					Thread.sleep(DELAY);
+				}
+				catch(InterruptedException e)
+				{
+					e.printStackTrace();
+				}
+		        if(visual)
+		        	gv.repaint();
+			}
+		}
+		catch(IOException ioe)
+		{
+			ioe.printStackTrace();
+		}
+	}
+
+	/**
+	 * Summarises how well a controller kept to its time budget in the timed games it played: the latencies
+	 * of its moves, how many of them missed their deadline and how often the game went on with a stale move
+	 * (see Controller.getMoveLatencies(), getMissedDeadlines() and getStaleMoves()).
+	 *
+	 * @param name The name to start the line with
+	 * @param controller The controller
+	 * @return the summary, one tab-separated line
+	 */
+	public static String getTimingSummary(String name,Controller<?> controller)
+	{
+		return name+"\tlatency "+controller.getMoveLatencies()+"\tmissed deadlines "+controller.getMissedDeadlines()
+				+"\tstale moves "+controller.getStaleMoves();
+	}
+
+	private static void printTimings(Controller<MOVE> pacManController,Controller<EnumMap<GHOST,MOVE>> ghostController)
+	{
+		System.out.println(getTimingSummary("pacman",pacManController));
+		System.out.println(getTimingSummary("ghosts",ghostController));
+	}
+
 	//save file for replays
     public static void saveToFile(String data,String name,boolean append)
     {
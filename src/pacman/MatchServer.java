@@ -0,0 +1,219 @@
+package pacman;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import pacman.controllers.Controller;
+import pacman.game.Game;
+import pacman.game.util.LatencyHistogram;
+
+import static pacman.game.Constants.*;
+
+/**
+ * Hosts many timed games at once, e.g. for a league evaluation. Every match gets its own controllers from the
+ * factories supplied and is played as in Executor.runGameTimed: every DELAY ms the game is advanced with whatever
+ * moves the controllers have computed by then and the controllers are given the new state. Instead of two
+ * threads per game, the ticks of all matches run on a small shared scheduler and the moves are computed on the
+ * pool shared by all controllers (see Controller.update).
+ *
+ * The tick latency of a match is the time from when a tick was due to when the game had been advanced and the
+ * controllers updated; the latencies of all matches are collected in one histogram (see getTickLatencies()).
+ * If the server is overloaded the latencies grow, which is what they should be watched for.
+ */
+public class MatchServer
+{
+	private final ScheduledExecutorService scheduler;
+	private final LatencyHistogram tickLatencies=new LatencyHistogram();
+	private final AtomicInteger running=new AtomicInteger();
+	private final List<CompletableFuture<Game>> matches=new ArrayList<CompletableFuture<Game>>();	//still running
+
+	/**
+	 * Creates a server whose ticks run on the given number of threads.
+	 *
+	 * @param threads The number of scheduler threads
+	 */
+	public MatchServer(int threads)
+	{
+		AtomicInteger ids=new AtomicInteger();
+
+		scheduler=Executors.newScheduledThreadPool(threads,r -> {
+			Thread thread=new Thread(r,"match-tick-"+ids.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Starts a match: its controllers are given the initial state at once and the first tick follows DELAY ms
+	 * later. The match ends when the game is over, when its controllers are terminated. The server forgets the
+	 * match once it is over, so the returned future is the only way to its game.
+	 *
+	 * @param pacManFactory Creates the Pac-Man controller of the match
+	 * @param ghostFactory Creates the Ghosts controller of the match
+	 * @param seed The seed of the game
+	 * @return the game of the match, once it is over; completed exceptionally if a controller failed
+	 */
+	public CompletableFuture<Game> submit(Supplier<Controller<MOVE>> pacManFactory,
+			Supplier<Controller<EnumMap<GHOST,MOVE>>> ghostFactory,long seed)
+	{
+		Match match=new Match(pacManFactory.get(),ghostFactory.get(),new Game(seed));
+
+		synchronized(matches)
+		{
+			matches.add(match.result);
+		}
+
+		match.result.whenComplete((game,error) -> {
+			synchronized(matches)
+			{
+				matches.remove(match.result);
+			}
+		});
+
+		running.incrementAndGet();
+		match.start();
+
+		return match.result;
+	}
+
+	/**
+	 * Waits until all matches submitted so far are over, whether they ended normally or not. Their games are
+	 * returned by the futures submit() returned.
+	 */
+	public void awaitAll()
+	{
+		List<CompletableFuture<Game>> pending;
+
+		synchronized(matches)
+		{
+			pending=new ArrayList<CompletableFuture<Game>>(matches);
+		}
+
+		CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).exceptionally(error -> null).join();
+	}
+
+	/**
+	 * @return the number of matches that are not over yet
+	 */
+	public int getRunningMatches()
+	{
+		return running.get();
+	}
+
+	/**
+	 * @return the tick latencies of all matches played so far
+	 */
+	public LatencyHistogram getTickLatencies()
+	{
+		return tickLatencies;
+	}
+
+	/**
+	 * Stops the scheduler; matches still running are abandoned.
+	 */
+	public void shutdown()
+	{
+		scheduler.shutdownNow();
+	}
+
+	/*
+	 * A match in progress. Ticks are scheduled at a fixed rate, so a late tick does not delay the following ones.
+	 */
+	private final class Match implements Runnable
+	{
+		private final Controller<MOVE> pacManController;
+		private final Controller<EnumMap<GHOST,MOVE>> ghostController;
+		private final Game game;
+		private final CompletableFuture<Game> result=new CompletableFuture<Game>();
+
+		private ScheduledFuture<?> ticks;
+		private long start;
+		private long tick;
+
+		Match(Controller<MOVE> pacManController,Controller<EnumMap<GHOST,MOVE>> ghostController,Game game)
+		{
+			this.pacManController=pacManController;
+			this.ghostController=ghostController;
+			this.game=game;
+		}
+
+		void start()
+		{
+			synchronized(this)
+			{
+				start=System.nanoTime();
+
+				try
+				{
+					_update();
+				}
+				catch(RuntimeException e)
+				{
+					_finish(e);
+					return;
+				}
+
+				ticks=scheduler.scheduleAtFixedRate(this,DELAY,DELAY,TimeUnit.MILLISECONDS);
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			synchronized(this)
+			{
+				if(result.isDone())
+					return;
+
+				try
+				{
+					long due=start+(++tick)*TimeUnit.MILLISECONDS.toNanos(DELAY);
+
+					game.advanceGame(pacManController.getMove(),ghostController.getMove());
+
+					if(game.gameOver())
+						_finish(null);
+					else
+						_update();
+
+					tickLatencies.record(System.nanoTime()-due);
+				}
+				catch(RuntimeException e)
+				{
+					_finish(e);
+				}
+			}
+		}
+
+		private void _update()
+		{
+			long timeDue=System.currentTimeMillis()+DELAY;
+
+			pacManController.update(game.copy(),timeDue);
+			ghostController.update(game.copy(),timeDue);
+		}
+
+		private void _finish(Throwable error)
+		{
+			if(ticks!=null)
+				ticks.cancel(false);
+
+			pacManController.terminate();
+			ghostController.terminate();
+			running.decrementAndGet();
+
+			if(error==null)
+				result.complete(game);
+			else
+				result.completeExceptionally(error);
+		}
+	}
+}
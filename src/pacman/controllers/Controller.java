@@ -1,10 +1,18 @@
 package pacman.controllers;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import pacman.game.Game;
+import pacman.game.util.LatencyHistogram;
 
 /**
- * This class is the superclass of your controller. In contains the code required to run the 
- * controller as a thread. In provides numerous methods that allow the Executor to use the 
+ * This class is the superclass of your controller. In contains the code required to compute
+ * moves asynchronously, on a pool of threads shared by all controllers. In provides numerous methods that allow the Executor to use the 
  * controller in various different execution modes. Your controller only needs to provide the
  * code for the getMove() method.
  *
@@ -12,11 +20,21 @@ import pacman.game.Game;
  */
 public abstract class Controller<T> implements Runnable
 {
-	private boolean alive,wasSignalled,hasComputed;
-	private volatile boolean threadStillRunning;
-	private long timeDue;
-	private Game game;
-	protected T lastMove;	//this is now protected. You can set this directly in your getMove() method to save an immediate response.
+	// move computations of all controllers run on one pool, so no thread is created per move, and are
+	// interrupted by a single timer thread once they are due. A controller runs one computation at a
+	// time, so the pool never holds more busy threads than there are controllers
+	private static final ExecutorService computations=Executors.newCachedThreadPool(daemon("controller-move"));
+	private static final ScheduledExecutorService deadlines=Executors.newSingleThreadScheduledExecutor(
+			daemon("controller-deadline"));
+
+	private volatile boolean alive,hasComputed;
+	private boolean busy;	//a computation was started and has not finished
+	private Thread computer;	//running the current computation once it started
+	private long generation;	//of the current computation, so that a late timer leaves the next one alone
+	private final AtomicInteger missedDeadlines=new AtomicInteger();
+	private final AtomicInteger staleMoves=new AtomicInteger();
+	private final LatencyHistogram moveLatencies=new LatencyHistogram();
+	protected volatile T lastMove;	//this is now protected. You can set this directly in your getMove() method to save an immediate response.
 
 	/**
 	 * Instantiates a new controller. The constructor initialises the class variables.
@@ -24,29 +42,31 @@ public abstract class Controller<T> implements Runnable
 	public Controller()
 	{
 		alive=true;
-		wasSignalled=false;
 		hasComputed=false;
-		threadStillRunning=false;
 	}
 
 	/**
-	 * Terminates the controller: a signal is sent and the flag "alive" is set to false. When
-	 * the thread wakes up, the outer loop will terminate and the thread finishes.
+	 * Terminates the controller: the current move computation, if any, is interrupted and run() returns.
 	 */
 	public final void terminate()
 	{
 		alive=false;
-		wasSignalled=true;
 
 		synchronized(this)
 		{
-			notify();
+			_interrupt(generation);
+			notifyAll();
 		}
 	}
 
 	/**
-	 * Updates the game state: a copy of the game is passed to this method and the class variable is
-	 * updated accordingly.
+	 * Updates the game state: a copy of the game is passed to this method and the computation of the
+	 * next move is started on a pooled thread, unless the previous computation is still running, in
+	 * which case this update is skipped. The computation is interrupted once timeDue has passed; a
+	 * controller may check Thread.interrupted() to stop early. A computation that finishes after timeDue
+	 * counts as a missed deadline (see getMissedDeadlines()), but its move is still kept, to be played
+	 * from the next time step on. The time from this call until getMove() returns is recorded for every
+	 * computation (see getMoveLatencies()).
 	 *
 	 * @param game A copy of the current game
 	 * @param timeDue The time the next move is due
@@ -55,60 +75,109 @@ public abstract class Controller<T> implements Runnable
 	{
 		synchronized(this)
 		{
-			this.game=game;
-			this.timeDue=timeDue;
-			wasSignalled=true;
+			if(!alive)
+				return;
+
 			hasComputed=false;
-			notify();
+
+			if(busy)
+				return;
+
+			long id=++generation;
+			long start=System.nanoTime();
+
+			busy=true;
+			computations.execute(() -> _compute(game,timeDue,start));
+
+			if(timeDue>0)
+				deadlines.schedule(() -> _interrupt(id),timeDue-System.currentTimeMillis(),TimeUnit.MILLISECONDS);
 		}
 	}
 
 	/**
-	 * Retrieves the move from the controller (whatever is stored in the class variable).
+	 * Runs a computation on a pooled thread and keeps its move, late or not. An exception thrown by
+	 * getMove() is printed and leaves the previous move in place.
+	 */
+	private void _compute(Game game,long timeDue,long start)
+	{
+		synchronized(this)
+		{
+			computer=Thread.currentThread();
+
+			// due before it even started
+			if(timeDue>0 && System.currentTimeMillis()>=timeDue)
+				computer.interrupt();
+		}
+
+		try
+		{
+			T move=getMove(game,timeDue);
+			moveLatencies.record(System.nanoTime()-start);
+
+			if(timeDue>0 && System.currentTimeMillis()>timeDue)
+				missedDeadlines.incrementAndGet();
+
+			lastMove=move;
+			hasComputed=true;
+		}
+		catch(RuntimeException e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			synchronized(this)
+			{
+				busy=false;
+				computer=null;
+				// clear an interrupt that came too late to matter, before the pooled thread moves on
+				Thread.interrupted();
+			}
+		}
+	}
+
+	/**
+	 * Interrupts the current computation if it is still the one with the given id.
+	 */
+	private synchronized void _interrupt(long id)
+	{
+		if(id==generation && computer!=null)
+			computer.interrupt();
+	}
+
+	/**
+	 * Retrieves the move from the controller (whatever is stored in the class variable). If no move was
+	 * computed since the last update, this is a stale move (see getStaleMoves()).
 	 *
 	 * @return The move stored in the class variable "lastMove"
 	 */
 	public final T getMove()
 	{
+		if(!hasComputed)
+			staleMoves.incrementAndGet();
+
 		return lastMove;
 	}
 	
-	/* (non-Javadoc)
-	 * @see java.lang.Runnable#run()
+	/**
+	 * Moves are computed on a shared pool as soon as the game is updated, so a thread running the
+	 * controller has nothing to do: it waits until the controller is terminated. Kept so that
+	 * controllers can still be started as threads.
 	 */
 	public final void run()
 	{
-		while(alive)
+		synchronized(this)
 		{
-			synchronized(this)
+			while(alive)
 			{
-				while(!wasSignalled)
+				try
 				{
-					try
-					{
-						wait();
-					}
-					catch(InterruptedException e)
-					{
-						e.printStackTrace();
-					}
+					wait();
 				}
-				
-				if(!threadStillRunning)
+				catch(InterruptedException e)
 				{
-					new Thread()
-					{
-						public void run()
-						{
-							threadStillRunning=true;
-							lastMove = getMove(game,timeDue);
-							hasComputed=true;
-							threadStillRunning=false;
-						}
-					}.start();
+					return;
 				}
-				
-				wasSignalled=false;
 			}
 		}
 	}
@@ -124,6 +193,47 @@ public abstract class Controller<T> implements Runnable
 		return hasComputed;
 	}
 
+	/**
+	 * Returns the number of move computations that were not finished by the time they were due.
+	 *
+	 * @return the number of missed deadlines
+	 */
+	public final int getMissedDeadlines()
+	{
+		return missedDeadlines.get();
+	}
+
+	/**
+	 * Returns the number of times getMove() was called when no move had been computed since the last
+	 * update, so that the game went on with an old move (or none at all).
+	 *
+	 * @return the number of stale moves
+	 */
+	public final int getStaleMoves()
+	{
+		return staleMoves.get();
+	}
+
+	/**
+	 * Returns the latencies of the moves computed since the controller was created: the time from the
+	 * update of the game to the end of getMove(game,timeDue).
+	 *
+	 * @return the move latencies
+	 */
+	public final LatencyHistogram getMoveLatencies()
+	{
+		return moveLatencies;
+	}
+
+	private static ThreadFactory daemon(String name)
+	{
+		return r -> {
+			Thread thread=new Thread(r,name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
 	/**
 	 * Compute the next move given a copy of the current game and a time the move has to be computed by.
 	 * This is the method contestants need to implement. Many examples are available in
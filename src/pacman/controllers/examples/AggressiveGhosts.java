@@ -1,11 +1,11 @@
 package pacman.controllers.examples;
 
 import java.util.EnumMap;
-import java.util.Random;
 import pacman.controllers.Controller;
 import pacman.game.Game;
 import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
+import pacman.game.util.SplitMix64;
 
 import static pacman.game.Constants.*;
 
@@ -15,9 +15,22 @@ import static pacman.game.Constants.*;
 public final class AggressiveGhosts extends Controller<EnumMap<GHOST,MOVE>>
 {	
 	private final static float CONSISTENCY=1.0f;	//carry out intended move with this probability
-	private Random rnd=new Random();
+	private SplitMix64 rnd;
 	private EnumMap<GHOST,MOVE> myMoves=new EnumMap<GHOST,MOVE>(GHOST.class);
 	private MOVE[] moves=MOVE.values();
+
+	public AggressiveGhosts()
+	{
+		this(new SplitMix64());
+	}
+
+	/*
+	 * Uses the random number generator supplied, e.g. a seeded one for reproducible games.
+	 */
+	public AggressiveGhosts(SplitMix64 rnd)
+	{
+		this.rnd=rnd;
+	}
 		
 	/* (non-Javadoc)
 	 * @see pacman.controllers.Controller#getMove(pacman.game.Game, long)
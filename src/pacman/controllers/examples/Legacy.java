@@ -1,9 +1,9 @@
 package pacman.controllers.examples;
 
 import java.util.EnumMap;
-import java.util.Random;
 import pacman.controllers.Controller;
 import pacman.game.Game;
+import pacman.game.util.SplitMix64;
 
 import static pacman.game.Constants.*;
 
@@ -12,7 +12,7 @@ import static pacman.game.Constants.*;
  */
 public class Legacy extends Controller<EnumMap<GHOST,MOVE>>
 {
-	Random rnd=new Random();
+	SplitMix64 rnd=new SplitMix64();
 	EnumMap<GHOST,MOVE> myMoves=new EnumMap<GHOST,MOVE>(GHOST.class);
 	MOVE[] moves=MOVE.values();
 	
@@ -1,11 +1,11 @@
 package pacman.controllers.examples;
 
 import java.util.EnumMap;
-import java.util.Random;
 import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
 import pacman.controllers.Controller;
+import pacman.game.util.SplitMix64;
 
 /*
  * The Class RandomGhosts.
@@ -14,7 +14,20 @@ public final class RandomGhosts extends Controller<EnumMap<GHOST,MOVE>>
 {	
 	private EnumMap<GHOST,MOVE> moves=new EnumMap<GHOST,MOVE>(GHOST.class);
 	private MOVE[] allMoves=MOVE.values();
-	private Random rnd=new Random();
+	private SplitMix64 rnd;
+
+	public RandomGhosts()
+	{
+		this(new SplitMix64());
+	}
+
+	/*
+	 * Uses the random number generator supplied, e.g. a seeded one for reproducible games.
+	 */
+	public RandomGhosts(SplitMix64 rnd)
+	{
+		this.rnd=rnd;
+	}
 	
 	/* (non-Javadoc)
 	 * @see pacman.controllers.Controller#getMove(pacman.game.Game, long)
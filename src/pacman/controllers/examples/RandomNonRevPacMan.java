@@ -1,8 +1,8 @@
 package pacman.controllers.examples;
 
-import java.util.Random;
 import pacman.controllers.Controller;
 import pacman.game.Game;
+import pacman.game.util.SplitMix64;
 
 import static pacman.game.Constants.*;
 
@@ -11,7 +11,7 @@ import static pacman.game.Constants.*;
  */
 public final class RandomNonRevPacMan extends Controller<MOVE>
 {	
-	Random rnd=new Random();
+	SplitMix64 rnd=new SplitMix64();
 	
 	/* (non-Javadoc)
 	 * @see pacman.controllers.Controller#getMove(pacman.game.Game, long)
@@ -1,17 +1,30 @@
 package pacman.controllers.examples;
 
-import java.util.Random;
 import pacman.game.Game;
 import pacman.game.Constants.MOVE;
 import pacman.controllers.Controller;
+import pacman.game.util.SplitMix64;
 
 /*
  * The Class RandomPacMan.
  */
 public final class RandomPacMan extends Controller<MOVE>
 {
-	private Random rnd=new Random();
+	private SplitMix64 rnd;
 	private MOVE[] allMoves=MOVE.values();
+
+	public RandomPacMan()
+	{
+		this(new SplitMix64());
+	}
+
+	/*
+	 * Uses the random number generator supplied, e.g. a seeded one for reproducible games.
+	 */
+	public RandomPacMan(SplitMix64 rnd)
+	{
+		this.rnd=rnd;
+	}
 	
 	/* (non-Javadoc)
 	 * @see pacman.controllers.Controller#getMove(pacman.game.Game, long)
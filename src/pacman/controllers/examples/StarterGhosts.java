@@ -1,9 +1,9 @@
 package pacman.controllers.examples;
 
 import java.util.EnumMap;
-import java.util.Random;
 import pacman.controllers.Controller;
 import pacman.game.Game;
+import pacman.game.util.SplitMix64;
 
 import static pacman.game.Constants.*;
 
@@ -21,8 +21,21 @@ public final class StarterGhosts extends Controller<EnumMap<GHOST,MOVE>>
 	private final static float CONSISTENCY=0.5f;	//attack Ms Pac-Man with this probability
 	private final static int PILL_PROXIMITY=15;		//if Ms Pac-Man is this close to a power pill, back away
 	
-	Random rnd=new Random();
+	SplitMix64 rnd;
 	EnumMap<GHOST,MOVE> myMoves=new EnumMap<GHOST,MOVE>(GHOST.class);
+
+	public StarterGhosts()
+	{
+		this(new SplitMix64());
+	}
+
+	/*
+	 * Uses the random number generator supplied, e.g. a seeded one for reproducible games.
+	 */
+	public StarterGhosts(SplitMix64 rnd)
+	{
+		this.rnd=rnd;
+	}
 	
 	public EnumMap<GHOST,MOVE> getMove(Game game,long timeDue)
 	{
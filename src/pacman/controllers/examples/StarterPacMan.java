@@ -1,6 +1,5 @@
 package pacman.controllers.examples;
 
-import java.util.ArrayList;
 import pacman.controllers.Controller;
 import pacman.game.Game;
 
@@ -49,27 +48,8 @@ public class StarterPacMan extends Controller<MOVE>
 		if(minGhost!=null)	//we found an edible ghost
 			return game.getNextMoveTowardsTarget(game.getPacmanPosition(),game.getGhostCurrentNodeIndex(minGhost),DM.PATH);
 		
-		//Strategy 3: go after the pills and power pills
-		int[] pills=game.getPillIndices();
-		int[] powerPills=game.getPowerPillIndices();		
-		
-		ArrayList<Integer> targets=new ArrayList<Integer>();
-		
-		for(int i=0;i<pills.length;i++)					//check which pills are available			
-			if(game.isPillStillAvailable(i))
-				targets.add(pills[i]);
-		
-		for(int i=0;i<powerPills.length;i++)			//check with power pills are available
-			if(game.isPowerPillStillAvailable(i))
-				targets.add(powerPills[i]);				
-		
-		int[] targetsArray=new int[targets.size()];		//convert from ArrayList to array
-		
-		for(int i=0;i<targetsArray.length;i++)
-			targetsArray[i]=targets.get(i);
-		
-		//return the next direction once the closest target has been identified
-		return game.getNextMoveTowardsTarget(current,game.getClosestNodeIndexFromNodeIndex(current,targetsArray,DM.PATH),DM.PATH);
+		//Strategy 3: go after the nearest pill or power pill
+		return game.getNextMoveTowardsTarget(current,game.getClosestActivePillNodeIndex(current,true),DM.PATH);
 	}
 }
 
@@ -29,11 +29,10 @@ public class NearestPowerPill extends Controller<MOVE>{
 		}
 		
 		currentNode = game.getPacmanPosition();
-		//get all active pills
-		int[] activePills= game.getRemainingPillsIndices();
 		
+		//go to the closest active pill
 		return game.getNextMoveTowardsTarget(game.getPacmanPosition(),
-				game.getClosestNodeIndexFromNodeIndex(currentNode, activePills,DM.PATH),DM.PATH);
+				game.getClosestActivePillNodeIndex(currentNode, false),DM.PATH);
 	}
 	
 }
@@ -1,15 +1,20 @@
 package pacman.game;
 
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
 
+import pacman.controllers.Controller;
 import pacman.game.Constants.DM;
 import pacman.game.Constants.MOVE;
-import pacman.game.internal.Ghost;
 import pacman.game.internal.Maze;
-import pacman.game.internal.Node;
-import pacman.game.internal.PacMan;
 import pacman.game.internal.PathsCache;
+import pacman.game.internal.UndoJournal;
+import pacman.game.internal.Zobrist;
+import pacman.game.util.SplitMix64;
 
 import javax.xml.crypto.dsig.keyinfo.KeyValue;
 
@@ -42,38 +47,99 @@ import static pacman.game.Constants.*;
  * heuristic so it is very efficient.
  */
 public final class Game {
-	// pills stored as bitsets for efficient copying
-	private BitSet pills, powerPills;
-	// all the game"s variables
-	private int mazeIndex, levelCount, currentLevelTime, totalTime, score, ghostEatMultiplier,
-			timeOfLastGlobalReversal;
-	private boolean gameOver, pacmanWasEaten, pillWasEaten, powerPillWasEaten;
-	private EnumMap<GHOST, Boolean> ghostsEaten;
-	// the data relating to pacman and the ghosts are stored in respective data
-	// structures for clarity
-	private PacMan pacman;
-	private EnumMap<GHOST, Ghost> ghosts;
-
-	// mazes are only loaded once since they don"t change over time
-	private static Maze[] mazes = new Maze[NUM_MAZES];;
-
-	private Maze currentMaze;
+	// The complete game state is packed into a single int[] so that copies,
+	// snapshots and restores are plain array copies. Layout of the block:
+	// scalar variables, then 4 slots per ghost, then the pill bitmap. The
+	// scalar slots are package-private for the replay format (see
+	// ReplayWriter).
+	static final int MAZE_INDEX = 0, LEVEL_COUNT = 1, CURRENT_LEVEL_TIME = 2, TOTAL_TIME = 3,
+			SCORE = 4, GHOST_EAT_MULTIPLIER = 5, TIME_OF_LAST_GLOBAL_REVERSAL = 6, FLAGS = 7,
+			PACMAN_NODE = 8, PACMAN_MOVE = 9, PACMAN_LIVES = 10, PILLS_LEFT = 11, POWER_PILLS = 12,
+			HASH_LO = 13, HASH_HI = 14, RNG_LO = 15, RNG_HI = 16, GHOSTS = 17;
+	// slots of a ghost, relative to GHOSTS + ghost.ordinal() * GHOST_SLOTS
+	private static final int GHOST_NODE = 0, GHOST_EDIBLE_TIME = 1, GHOST_LAIR_TIME = 2, GHOST_MOVE = 3,
+			GHOST_SLOTS = 4;
+	// pill bitmap: 1 bit per pill, 32 pills per slot
+	private static final int PILLS = GHOSTS + NUM_GHOSTS * GHOST_SLOTS;
+	/**
+	 * Maximum number of pills a maze may have.
+	 */
+	public static final int MAX_PILLS = 256;
+	/**
+	 * Number of ints needed to hold the game state, i.e., the size of a
+	 * snapshot buffer.
+	 */
+	public static final int STATE_SIZE = PILLS + MAX_PILLS / Integer.SIZE;
+
+	// bits of the FLAGS slot; ghostsEaten uses one bit per ghost from
+	// GHOST_EATEN upwards
+	private static final int GAME_OVER = 1, PACMAN_WAS_EATEN = 1 << 1, PILL_WAS_EATEN = 1 << 2,
+			POWER_PILL_WAS_EATEN = 1 << 3, EXTRA_LIFE_RECEIVED = 1 << 4, GHOST_EATEN = 1 << 8;
+	private static final int ALL_GHOSTS_EATEN = ((1 << NUM_GHOSTS) - 1) * GHOST_EATEN;
+
+	// slots covered by the Zobrist hash kept in HASH_LO/HASH_HI (the ghost
+	// slots and the pill bitmap are hashed as well); all writes to hashed
+	// slots go through _put so the hash is maintained incrementally
+	private static final int[] HASHED_SCALARS = { MAZE_INDEX, SCORE, PACMAN_NODE, PACMAN_MOVE, PACMAN_LIVES,
+			POWER_PILLS };
+
+	private int[] state;
+
+	// cached as values() clones its array on every call
+	private static final GHOST[] GHOST_TYPES = GHOST.values();
+	private static final MOVE[] MOVES = MOVE.values();
+	private static final int NUM_MOVES = MOVES.length;
+
+	// mazes and their paths caches are only loaded once since they don"t
+	// change over time, and only when a game first needs them (see _maze and
+	// getPathsCache); separate locks as building a paths cache loads the maze
+	private static final AtomicReferenceArray<Maze> mazes = new AtomicReferenceArray<Maze>(NUM_MAZES);
+	private static final AtomicReferenceArray<PathsCache> caches = new AtomicReferenceArray<PathsCache>(NUM_MAZES);
+	private static final Object[] mazeLocks = new Object[NUM_MAZES], cacheLocks = new Object[NUM_MAZES];
 
 	static {
-		for (int i = 0; i < mazes.length; i++)
-			mazes[i] = new Maze(i);
+		for (int i = 0; i < NUM_MAZES; i++) {
+			mazeLocks[i] = new Object();
+			cacheLocks[i] = new Object();
+		}
 	}
 
-	public static PathsCache[] caches = new PathsCache[NUM_MAZES];
+	// loads the next maze in the background when a level is about to end
+	private static volatile boolean prefetchMazes = false;
+	private static final AtomicBoolean[] prefetched = new AtomicBoolean[NUM_MAZES];
+	private static ExecutorService prefetcher;
+	// a level is about to end when this few pills are left or this little
+	// time remains
+	private static final int PREFETCH_PILLS = 20, PREFETCH_TIME = 200;
 
 	static {
-		for (int i = 0; i < mazes.length; i++) {
-			caches[i] = new PathsCache(i);
-		}
+		for (int i = 0; i < NUM_MAZES; i++)
+			prefetched[i] = new AtomicBoolean();
 	}
 
-	private Random rnd;
-	private long seed;
+	// derived from state[MAZE_INDEX]
+	private Maze currentMaze;
+
+	// records the state before each advance when undo is enabled
+	private UndoJournal journal;
+
+	// dense view of the remaining pills, see getRemainingPillNodeIndex():
+	// pillView[0..pillViewSize) are their indices in no particular order and
+	// pillPositions[pillIndex] is where a remaining pill is in pillView.
+	// Built when first used and kept up to date by _setPill until the state
+	// is replaced as a whole; not part of the state, so copies build their own
+	private int[] pillView, pillPositions;
+	private int pillViewSize;
+	private boolean pillViewValid;
+
+	// the ghosts keep their directions when given null moves: filled in here
+	// rather than in a new map every time step, see _completeGhostMoves
+	private EnumMap<GHOST, MOVE> currentGhostMoves;
+
+	// the ghost moves of the time steps of advanceToJunction in which no ghost
+	// requires an action: all NEUTRAL, refilled every time step as the engine
+	// writes the moves made back into the map (see _updateGhosts)
+	private EnumMap<GHOST, MOVE> neutralGhostMoves;
 
 	// ///////////////////////////////////////////////////////////////////////////
 	// ///////////////// Constructors and initialisers /////////////////////////
@@ -82,7 +148,8 @@ public final class Game {
 	/**
 	 * Instantiates a new game. The seed is used to initialise the pseudo-random
 	 * number generator. This way, a game may be replicated exactly by using
-	 * identical seeds. Note: in the competition, the games received from the
+	 * identical seeds: the generator (see SplitMix64) is part of the packed
+	 * state, so games with the same seed and moves are bit-identical. Note: in the competition, the games received from the
 	 * game server are using different seeds. Otherwise global reversal events
 	 * would be predictable.
 	 * 
@@ -90,10 +157,8 @@ public final class Game {
 	 *            The seed for the pseudo-random number generator
 	 */
 	public Game(long seed) {
-		this.seed = seed;
-		rnd = new Random(seed);
-
 		_init(0);
+		setRandomSeed(seed);
 	}
 
 	/**
@@ -105,16 +170,45 @@ public final class Game {
 	 *            The maze to start the game with
 	 */
 	public Game(long seed, int initialMaze) {
-		this.seed = seed;
-		rnd = new Random(seed);
-
 		_init(initialMaze);
+		setRandomSeed(seed);
 	}
 
 	/**
-	 * Empty constructor used by the copy method.
+	 * Re-seeds the pseudo-random number generator of the game, e.g. so that
+	 * copies of a game that are given the same moves diverge.
+	 * 
+	 * @param seed
+	 *            The new seed
 	 */
-	private Game() {
+	public void setRandomSeed(long seed) {
+		state[RNG_LO] = (int) seed;
+		state[RNG_HI] = (int) (seed >>> 32);
+	}
+
+	/**
+	 * _random: draws the next random long from the generator in the state.
+	 */
+	private long _random() {
+		long rng = SplitMix64.nextState((state[RNG_HI] & 0xFFFFFFFFL) << 32 | (state[RNG_LO] & 0xFFFFFFFFL));
+
+		state[RNG_LO] = (int) rng;
+		state[RNG_HI] = (int) (rng >>> 32);
+
+		return SplitMix64.mix(rng);
+	}
+
+	/**
+	 * _random: draws a random int in [0, bound).
+	 */
+	private int _random(int bound) {
+		return (int) (((_random() >>> 32) * bound) >>> 32);
+	}
+
+	/**
+	 * Empty constructor used by the copy method and by GameBatch.
+	 */
+	Game() {
 	}
 
 	/**
@@ -124,36 +218,32 @@ public final class Game {
 	 *            the initial maze
 	 */
 	private void _init(int initialMaze) {
-		mazeIndex = initialMaze;
-		score = currentLevelTime = levelCount = totalTime = 0;
-		ghostEatMultiplier = 1;
-		gameOver = false;
-		timeOfLastGlobalReversal = -1;
-		pacmanWasEaten = false;
-		pillWasEaten = false;
-		powerPillWasEaten = false;
+		state = new int[STATE_SIZE];
 
-		ghostsEaten = new EnumMap<GHOST, Boolean>(GHOST.class);
+		state[MAZE_INDEX] = initialMaze;
+		state[GHOST_EAT_MULTIPLIER] = 1;
+		state[TIME_OF_LAST_GLOBAL_REVERSAL] = -1;
 
-		for (GHOST ghost : GHOST.values())
-			ghostsEaten.put(ghost, false);
-
-		_setPills(currentMaze = mazes[mazeIndex]);
+		_setPills(currentMaze = _maze(initialMaze));
 		_initGhosts();
 
-		pacman = new PacMan(currentMaze.initialPacManNodeIndex, MOVE.LEFT, NUM_LIVES, false);
+		state[PACMAN_NODE] = currentMaze.initialPacManNodeIndex;
+		state[PACMAN_MOVE] = MOVE.LEFT.ordinal();
+		state[PACMAN_LIVES] = NUM_LIVES;
+
+		_rehash();
 	}
 
 	/**
 	 * _new level reset.
 	 */
 	private void _newLevelReset() {
-		mazeIndex = ++mazeIndex % NUM_MAZES;
-		levelCount++;
-		currentMaze = mazes[mazeIndex];
+		state[MAZE_INDEX] = (state[MAZE_INDEX] + 1) % NUM_MAZES;
+		state[LEVEL_COUNT]++;
+		currentMaze = _maze(state[MAZE_INDEX]);
 
-		currentLevelTime = 0;
-		ghostEatMultiplier = 1;
+		state[CURRENT_LEVEL_TIME] = 0;
+		state[GHOST_EAT_MULTIPLIER] = 1;
 
 		_setPills(currentMaze);
 		_levelReset();
@@ -163,12 +253,14 @@ public final class Game {
 	 * _level reset.
 	 */
 	private void _levelReset() {
-		ghostEatMultiplier = 1;
+		state[GHOST_EAT_MULTIPLIER] = 1;
 
 		_initGhosts();
 
-		pacman.currentNodeIndex = currentMaze.initialPacManNodeIndex;
-		pacman.lastMoveMade = MOVE.LEFT;
+		state[PACMAN_NODE] = currentMaze.initialPacManNodeIndex;
+		state[PACMAN_MOVE] = MOVE.LEFT.ordinal();
+
+		_rehash();
 	}
 
 	/**
@@ -178,24 +270,219 @@ public final class Game {
 	 *            the maze
 	 */
 	private void _setPills(Maze maze) {
-		pills = new BitSet(currentMaze.pillIndices.length);
-		pills.set(0, currentMaze.pillIndices.length);
-		powerPills = new BitSet(currentMaze.powerPillIndices.length);
-		powerPills.set(0, currentMaze.powerPillIndices.length);
+		int numPills = maze.pillIndices.length;
+
+		if (numPills > MAX_PILLS)
+			throw new IllegalStateException("Maze " + maze.name + " has more than " + MAX_PILLS + " pills");
+
+		for (int i = PILLS; i < STATE_SIZE; i++) {
+			int bits = Math.min(Math.max(numPills - (i - PILLS) * Integer.SIZE, 0), Integer.SIZE);
+			state[i] = bits == Integer.SIZE ? -1 : (1 << bits) - 1;
+		}
+
+		state[PILLS_LEFT] = numPills;
+		state[POWER_PILLS] = (1 << maze.powerPillIndices.length) - 1;
+		pillViewValid = false;
 	}
 
 	/**
 	 * _init ghosts.
 	 */
 	private void _initGhosts() {
-		ghosts = new EnumMap<GHOST, Ghost>(GHOST.class);
+		for (GHOST ghostType : GHOST_TYPES) {
+			int g = _ghost(ghostType);
+
+			state[g + GHOST_NODE] = currentMaze.lairNodeIndex;
+			state[g + GHOST_EDIBLE_TIME] = 0;
+			state[g + GHOST_LAIR_TIME] = (int) (ghostType.initialLairTime * (Math.pow(LAIR_REDUCTION,
+					state[LEVEL_COUNT] % LEVEL_RESET_REDUCTION)));
+			state[g + GHOST_MOVE] = MOVE.NEUTRAL.ordinal();
+		}
+	}
+
+	/**
+	 * Returns the maze with the given index, loading it if this is the first
+	 * time it is needed.
+	 */
+	private static Maze _maze(int mazeIndex) {
+		Maze maze = mazes.get(mazeIndex);
+
+		if (maze == null) {
+			synchronized (mazeLocks[mazeIndex]) {
+				maze = mazes.get(mazeIndex);
+
+				if (maze == null) {
+					maze = new Maze(mazeIndex);
+					mazes.set(mazeIndex, maze);
+				}
+			}
+		}
+
+		return maze;
+	}
+
+	/**
+	 * Returns the paths cache of the maze with the given index, building it if
+	 * this is the first time it is needed. Thread safe.
+	 * 
+	 * @param mazeIndex
+	 *            The index of the maze
+	 * @return the paths cache of the maze
+	 */
+	public static PathsCache getPathsCache(int mazeIndex) {
+		PathsCache cache = caches.get(mazeIndex);
+
+		if (cache == null) {
+			synchronized (cacheLocks[mazeIndex]) {
+				cache = caches.get(mazeIndex);
+
+				if (cache == null) {
+					cache = new PathsCache(mazeIndex);
+					caches.set(mazeIndex, cache);
+				}
+			}
+		}
+
+		return cache;
+	}
+
+	/**
+	 * Enables or disables loading the next maze and its paths cache on a
+	 * background thread when a level is about to end, so that the game does
+	 * not stall when the next level starts. Disabled by default.
+	 * 
+	 * @param prefetch
+	 *            Whether to prefetch the next maze
+	 */
+	public static void setPrefetchMazes(boolean prefetch) {
+		prefetchMazes = prefetch;
+	}
+
+	/**
+	 * Starts loading the maze after the current one if the level is about to
+	 * end; does nothing if it was started before.
+	 */
+	private void _prefetchNextMaze() {
+		if (state[PILLS_LEFT] > PREFETCH_PILLS && state[CURRENT_LEVEL_TIME] < LEVEL_LIMIT - PREFETCH_TIME)
+			return;
+
+		int next = (state[MAZE_INDEX] + 1) % NUM_MAZES;
+
+		if (caches.get(next) != null || !prefetched[next].compareAndSet(false, true))
+			return;
+
+		synchronized (prefetched) {
+			if (prefetcher == null)
+				prefetcher = Executors.newSingleThreadExecutor(r -> {
+					Thread thread = new Thread(r, "maze-prefetch");
+					thread.setDaemon(true);
+					return thread;
+				});
+		}
 
-		for (GHOST ghostType : GHOST.values())
-			ghosts.put(
-					ghostType,
-					new Ghost(ghostType, currentMaze.lairNodeIndex, 0,
-							(int) (ghostType.initialLairTime * (Math.pow(LAIR_REDUCTION, levelCount
-									% LEVEL_RESET_REDUCTION))), MOVE.NEUTRAL));
+		prefetcher.execute(() -> getPathsCache(next));
+	}
+
+	/**
+	 * Whether a move is in a set of moves given as a bitmask (see
+	 * Maze.moveMasks); NEUTRAL and null (no move) never are.
+	 */
+	private static boolean _canMove(int moves, MOVE move) {
+		return move != null && move != MOVE.NEUTRAL && (moves & (1 << move.ordinal())) != 0;
+	}
+
+	/**
+	 * Offset of the slots of a ghost in the state block.
+	 */
+	private static int _ghost(GHOST ghostType) {
+		return GHOSTS + ghostType.ordinal() * GHOST_SLOTS;
+	}
+
+	private boolean _flag(int flag) {
+		return (state[FLAGS] & flag) != 0;
+	}
+
+	private void _setFlag(int flag, boolean value) {
+		if (value)
+			state[FLAGS] |= flag;
+		else
+			state[FLAGS] &= ~flag;
+	}
+
+	private boolean _pill(int pillIndex) {
+		return (state[PILLS + (pillIndex >>> 5)] & (1 << pillIndex)) != 0;
+	}
+
+	private void _setPill(int pillIndex, boolean value) {
+		int slot = PILLS + (pillIndex >>> 5);
+
+		if (value) {
+			_put(slot, state[slot] | 1 << pillIndex);
+			pillViewValid = false;
+		} else if (_pill(pillIndex)) {
+			_put(slot, state[slot] & ~(1 << pillIndex));
+
+			// swap the last remaining pill into the place of this one
+			if (pillViewValid) {
+				int position = pillPositions[pillIndex], last = pillView[--pillViewSize];
+
+				pillView[position] = last;
+				pillPositions[last] = position;
+			}
+		}
+	}
+
+	/**
+	 * Builds the view of the remaining pills from the pills of the state,
+	 * reusing its arrays.
+	 */
+	private void _buildPillView() {
+		if (pillView == null) {
+			pillView = new int[MAX_PILLS];
+			pillPositions = new int[MAX_PILLS];
+		}
+
+		pillViewSize = 0;
+
+		for (int slot = PILLS; slot < STATE_SIZE; slot++) {
+			for (int bits = state[slot]; bits != 0; bits &= bits - 1) {
+				int pillIndex = (slot - PILLS) << 5 | Integer.numberOfTrailingZeros(bits);
+
+				pillPositions[pillIndex] = pillViewSize;
+				pillView[pillViewSize++] = pillIndex;
+			}
+		}
+
+		pillViewValid = true;
+	}
+
+	/**
+	 * Writes a hashed slot and updates the Zobrist hash accordingly.
+	 */
+	private void _put(int slot, int value) {
+		long hash = ((long) state[HASH_HI] << 32 | (state[HASH_LO] & 0xFFFFFFFFL))
+				^ Zobrist.key(slot, state[slot]) ^ Zobrist.key(slot, value);
+
+		state[slot] = value;
+		state[HASH_LO] = (int) hash;
+		state[HASH_HI] = (int) (hash >>> 32);
+	}
+
+	/**
+	 * Recomputes the Zobrist hash from scratch, used whenever large parts of
+	 * the state are (re)initialised.
+	 */
+	private void _rehash() {
+		long hash = 0;
+
+		for (int slot : HASHED_SCALARS)
+			hash ^= Zobrist.key(slot, state[slot]);
+
+		for (int slot = GHOSTS; slot < STATE_SIZE; slot++)
+			hash ^= Zobrist.key(slot, state[slot]);
+
+		state[HASH_LO] = (int) hash;
+		state[HASH_HI] = (int) (hash >>> 32);
 	}
 
 	/**
@@ -210,16 +497,20 @@ public final class Game {
 	public String getGameState() {
 		StringBuilder sb = new StringBuilder();
 
-		sb.append(mazeIndex + "," + totalTime + "," + score + "," + currentLevelTime + ","
-				+ levelCount + "," + pacman.currentNodeIndex + "," + pacman.lastMoveMade + ","
-				+ pacman.numberOfLivesRemaining + "," + pacman.hasReceivedExtraLife + ",");
+		sb.append(state[MAZE_INDEX] + "," + state[TOTAL_TIME] + "," + state[SCORE] + ","
+				+ state[CURRENT_LEVEL_TIME] + "," + state[LEVEL_COUNT] + "," + state[PACMAN_NODE] + ","
+				+ MOVES[state[PACMAN_MOVE]] + "," + state[PACMAN_LIVES] + "," + _flag(EXTRA_LIFE_RECEIVED)
+				+ ",");
 
-		for (Ghost ghost : ghosts.values())
-			sb.append(ghost.currentNodeIndex + "," + ghost.edibleTime + "," + ghost.lairTime + ","
-					+ ghost.lastMoveMade + ",");
+		for (GHOST ghostType : GHOST_TYPES) {
+			int g = _ghost(ghostType);
+
+			sb.append(state[g + GHOST_NODE] + "," + state[g + GHOST_EDIBLE_TIME] + ","
+					+ state[g + GHOST_LAIR_TIME] + "," + MOVES[state[g + GHOST_MOVE]] + ",");
+		}
 
 		for (int i = 0; i < currentMaze.pillIndices.length; i++)
-			if (pills.get(i))
+			if (_pill(i))
 				sb.append("1");
 			else
 				sb.append("0");
@@ -227,25 +518,25 @@ public final class Game {
 		sb.append(",");
 
 		for (int i = 0; i < currentMaze.powerPillIndices.length; i++)
-			if (powerPills.get(i))
+			if (isPowerPillStillAvailable(i))
 				sb.append("1");
 			else
 				sb.append("0");
 
 		sb.append(",");
-		sb.append(timeOfLastGlobalReversal);
+		sb.append(state[TIME_OF_LAST_GLOBAL_REVERSAL]);
 		sb.append(",");
-		sb.append(pacmanWasEaten);
+		sb.append(_flag(PACMAN_WAS_EATEN));
 		sb.append(",");
 
-		for (GHOST ghost : GHOST.values()) {
-			sb.append(ghostsEaten.get(ghost));
+		for (GHOST ghost : GHOST_TYPES) {
+			sb.append(wasGhostEaten(ghost));
 			sb.append(",");
 		}
 
-		sb.append(pillWasEaten);
+		sb.append(_flag(PILL_WAS_EATEN));
 		sb.append(",");
-		sb.append(powerPillWasEaten);
+		sb.append(_flag(POWER_PILL_WAS_EATEN));
 
 		return sb.toString();
 	}
@@ -262,90 +553,188 @@ public final class Game {
 
 		int index = 0;
 
-		mazeIndex = Integer.parseInt(values[index++]);
-		totalTime = Integer.parseInt(values[index++]);
-		score = Integer.parseInt(values[index++]);
-		currentLevelTime = Integer.parseInt(values[index++]);
-		levelCount = Integer.parseInt(values[index++]);
+		state[MAZE_INDEX] = Integer.parseInt(values[index++]);
+		state[TOTAL_TIME] = Integer.parseInt(values[index++]);
+		state[SCORE] = Integer.parseInt(values[index++]);
+		state[CURRENT_LEVEL_TIME] = Integer.parseInt(values[index++]);
+		state[LEVEL_COUNT] = Integer.parseInt(values[index++]);
 
-		pacman = new PacMan(Integer.parseInt(values[index++]), MOVE.valueOf(values[index++]),
-				Integer.parseInt(values[index++]), Boolean.parseBoolean(values[index++]));
+		state[PACMAN_NODE] = Integer.parseInt(values[index++]);
+		state[PACMAN_MOVE] = MOVE.valueOf(values[index++]).ordinal();
+		state[PACMAN_LIVES] = Integer.parseInt(values[index++]);
+		_setFlag(EXTRA_LIFE_RECEIVED, Boolean.parseBoolean(values[index++]));
 
-		ghosts = new EnumMap<GHOST, Ghost>(GHOST.class);
+		for (GHOST ghostType : GHOST_TYPES) {
+			int g = _ghost(ghostType);
 
-		for (GHOST ghostType : GHOST.values())
-			ghosts.put(
-					ghostType,
-					new Ghost(ghostType, Integer.parseInt(values[index++]), Integer
-							.parseInt(values[index++]), Integer.parseInt(values[index++]), MOVE
-							.valueOf(values[index++])));
+			state[g + GHOST_NODE] = Integer.parseInt(values[index++]);
+			state[g + GHOST_EDIBLE_TIME] = Integer.parseInt(values[index++]);
+			state[g + GHOST_LAIR_TIME] = Integer.parseInt(values[index++]);
+			state[g + GHOST_MOVE] = MOVE.valueOf(values[index++]).ordinal();
+		}
 
-		_setPills(currentMaze = mazes[mazeIndex]);
+		_setPills(currentMaze = _maze(state[MAZE_INDEX]));
 
 		for (int i = 0; i < values[index].length(); i++)
-			if (values[index].charAt(i) == '1')
-				pills.set(i);
-			else
-				pills.clear(i);
+			if (values[index].charAt(i) != '1') {
+				_setPill(i, false);
+				state[PILLS_LEFT]--;
+			}
 
 		index++;
 
 		for (int i = 0; i < values[index].length(); i++)
-			if (values[index].charAt(i) == '1')
-				powerPills.set(i);
-			else
-				powerPills.clear(i);
+			if (values[index].charAt(i) != '1')
+				state[POWER_PILLS] &= ~(1 << i);
 
-		timeOfLastGlobalReversal = Integer.parseInt(values[++index]);
-		pacmanWasEaten = Boolean.parseBoolean(values[++index]);
+		state[TIME_OF_LAST_GLOBAL_REVERSAL] = Integer.parseInt(values[++index]);
+		_setFlag(PACMAN_WAS_EATEN, Boolean.parseBoolean(values[++index]));
 
-		ghostsEaten = new EnumMap<GHOST, Boolean>(GHOST.class);
+		for (GHOST ghost : GHOST_TYPES)
+			_setFlag(GHOST_EATEN << ghost.ordinal(), Boolean.parseBoolean(values[++index]));
 
-		for (GHOST ghost : GHOST.values())
-			ghostsEaten.put(ghost, Boolean.parseBoolean(values[++index]));
+		_setFlag(PILL_WAS_EATEN, Boolean.parseBoolean(values[++index]));
+		_setFlag(POWER_PILL_WAS_EATEN, Boolean.parseBoolean(values[++index]));
 
-		pillWasEaten = Boolean.parseBoolean(values[++index]);
-		powerPillWasEaten = Boolean.parseBoolean(values[++index]);
+		_rehash();
 	}
 
 	/**
 	 * Returns an exact copy of the game. This may be used for forward searches
-	 * such as minimax. The copying is relatively efficient.
+	 * such as minimax. The copying is relatively efficient: the whole state is
+	 * a single array. The copy continues the sequence of random numbers of
+	 * this game, so given the same moves both play out identically.
 	 * 
 	 * @return the game
 	 */
 	public Game copy() {
 		Game copy = new Game();
 
-		copy.seed = seed;
-		copy.rnd = new Random(seed);
 		copy.currentMaze = currentMaze;
-		copy.pills = (BitSet) pills.clone();
-		copy.powerPills = (BitSet) powerPills.clone();
-		copy.mazeIndex = mazeIndex;
-		copy.levelCount = levelCount;
-		copy.currentLevelTime = currentLevelTime;
-		copy.totalTime = totalTime;
-		copy.score = score;
-		copy.ghostEatMultiplier = ghostEatMultiplier;
-		copy.gameOver = gameOver;
-		copy.timeOfLastGlobalReversal = timeOfLastGlobalReversal;
-		copy.pacmanWasEaten = pacmanWasEaten;
-		copy.pillWasEaten = pillWasEaten;
-		copy.powerPillWasEaten = powerPillWasEaten;
-		copy.pacman = pacman.copy();
-
-		copy.ghostsEaten = new EnumMap<GHOST, Boolean>(GHOST.class);
-		copy.ghosts = new EnumMap<GHOST, Ghost>(GHOST.class);
-
-		for (GHOST ghostType : GHOST.values()) {
-			copy.ghosts.put(ghostType, ghosts.get(ghostType).copy());
-			copy.ghostsEaten.put(ghostType, ghostsEaten.get(ghostType));
-		}
+		copy.state = state.clone();
 
 		return copy;
 	}
 
+	/**
+	 * Copies the state of this game into an existing game, reusing its objects
+	 * instead of allocating new ones. This is the allocation-free counterpart
+	 * of copy() meant for scratch states that are reset many times, e.g. in
+	 * rollouts.
+	 * 
+	 * @param target
+	 *            The game to overwrite
+	 */
+	public void copyInto(Game target) {
+		if (target.state == null)
+			target.state = new int[STATE_SIZE];
+
+		snapshotInto(target.state);
+		target.currentMaze = currentMaze;
+		target.pillViewValid = false;
+	}
+
+	/**
+	 * Writes the complete game state into the buffer supplied, which must hold
+	 * at least STATE_SIZE ints. Nothing is allocated; the state may later be
+	 * reinstated with restoreFrom(). The state of the random number generator
+	 * is part of the snapshot.
+	 * 
+	 * @param buffer
+	 *            The buffer to write the state to
+	 */
+	public void snapshotInto(int[] buffer) {
+		System.arraycopy(state, 0, buffer, 0, STATE_SIZE);
+	}
+
+	/**
+	 * Restores a game state previously written by snapshotInto(). Nothing is
+	 * allocated.
+	 * 
+	 * @param buffer
+	 *            The buffer holding the state
+	 */
+	public void restoreFrom(int[] buffer) {
+		System.arraycopy(buffer, 0, state, 0, STATE_SIZE);
+		currentMaze = _maze(state[MAZE_INDEX]);
+		pillViewValid = false;
+	}
+
+	/**
+	 * Restores a game state whose hash and random number generator slots were
+	 * not kept, e.g. one read from a replay. The hash is recomputed; the
+	 * generator is left as stored (0 for a replay), so advancing the game
+	 * from here does not continue the game it was taken from.
+	 * 
+	 * @param buffer
+	 *            The buffer holding the state
+	 */
+	void restoreUnhashed(int[] buffer) {
+		restoreFrom(buffer);
+		_rehash();
+	}
+
+	/**
+	 * Points this game at a packed state owned by someone else, without
+	 * copying it: all further updates and queries act on that state. Used by
+	 * GameBatch to run the engine over its states.
+	 * 
+	 * @param state
+	 *            The packed state, of STATE_SIZE ints
+	 */
+	void bind(int[] state) {
+		this.state = state;
+		currentMaze = _maze(state[MAZE_INDEX]);
+		pillViewValid = false;
+	}
+
+	/**
+	 * Enables make/unmake: from now on, every call to one of the advanceGame
+	 * methods records the state it is about to change in an undo journal, and
+	 * undoAdvance() reverts the most recent one. This allows tree searches to
+	 * walk the tree in place on a single game instead of copying it for every
+	 * node. The journal grows if more than the expected number of advances are
+	 * outstanding. Copies of the game do not inherit the journal. The random
+	 * number generator is rewound along with the rest of the state.
+	 * 
+	 * @param expectedDepth
+	 *            The expected maximum number of outstanding advances
+	 */
+	public void enableUndo(int expectedDepth) {
+		journal = new UndoJournal(STATE_SIZE, expectedDepth);
+	}
+
+	/**
+	 * Stops recording advances and drops the undo journal.
+	 */
+	public void disableUndo() {
+		journal = null;
+	}
+
+	/**
+	 * Reverts the most recent advance recorded in the undo journal.
+	 * 
+	 * @throws IllegalStateException
+	 *             if undo is not enabled or there is nothing to undo
+	 */
+	public void undoAdvance() {
+		if (journal == null)
+			throw new IllegalStateException("Undo is not enabled");
+
+		journal.pop(state);
+		currentMaze = _maze(state[MAZE_INDEX]);
+		pillViewValid = false;
+	}
+
+	/**
+	 * Returns the number of advances that may currently be undone.
+	 * 
+	 * @return the number of recorded advances
+	 */
+	public int getUndoDepth() {
+		return journal == null ? 0 : journal.depth();
+	}
+
 	// ///////////////////////////////////////////////////////////////////////////
 	// ///////////////////////// Game-engine //////////////////////////////////
 	// ///////////////////////////////////////////////////////////////////////////
@@ -361,27 +750,31 @@ public final class Game {
 	 *            The moves supplied by the ghosts controller
 	 */
 	public void advanceGame(MOVE pacManMove, EnumMap<GHOST, MOVE> ghostMoves) {
+		_record();
 		updatePacMan(pacManMove);
 		updateGhosts(ghostMoves);
 		updateGame();
 	}
 
 	public void advanceGameWithoutReverse(MOVE pacManMove, EnumMap<GHOST, MOVE> ghostMoves) {
+		_record();
 		updatePacMan(pacManMove);
 		updateGhostsWithoutReverse(ghostMoves);
 		updateGame();
 	}
 
 	public void advanceGameWithForcedReverse(MOVE pacManMove, EnumMap<GHOST, MOVE> ghostMoves) {
+		_record();
 		updatePacMan(pacManMove);
 		updateGhostsWithForcedReverse(ghostMoves);
 		updateGame();
 	}
 
 	public void advanceGameWithPowerPillReverseOnly(MOVE pacManMove, EnumMap<GHOST, MOVE> ghostMoves) {
+		_record();
 		updatePacMan(pacManMove);
 
-		if (powerPillWasEaten)
+		if (_flag(POWER_PILL_WAS_EATEN))
 			updateGhostsWithForcedReverse(ghostMoves);
 		else
 			updateGhostsWithoutReverse(ghostMoves);
@@ -389,6 +782,77 @@ public final class Game {
 		updateGame();
 	}
 
+	/**
+	 * Macro-action for search agents: advances the game, Ms Pac-Man heading in
+	 * the given direction and then following the corridor, until she reaches
+	 * the next junction. Stops early if she or a ghost is eaten or the level or
+	 * game ends. Ghosts can only change direction at junctions, so the ghost
+	 * controller is only consulted in the time steps where a ghost requires an
+	 * action; in all others the ghosts carry on along their corridors. Each time
+	 * step is journalled like a call to advanceGame(-).
+	 *
+	 * @param pacManMove
+	 *            The direction Ms Pac-Man leaves her current node in
+	 * @param ghostController
+	 *            The controller supplying the ghost moves
+	 * @param timeDue
+	 *            The time passed on to the ghost controller
+	 * @return the number of time steps advanced
+	 */
+	public int advanceToJunction(MOVE pacManMove, Controller<EnumMap<GHOST, MOVE>> ghostController,
+			long timeDue) {
+		int from = state[PACMAN_NODE];
+		int level = state[LEVEL_COUNT];
+		MOVE move = pacManMove;
+
+		if (neutralGhostMoves == null)
+			neutralGhostMoves = new EnumMap<GHOST, MOVE>(GHOST.class);
+
+		int steps = 0;
+
+		do {
+			int moves = currentMaze.moveMasks[state[PACMAN_NODE]];
+
+			// along a corridor there is only one way to go other than back
+			if (!_canMove(moves, move))
+				move = currentMaze.possibleMoves[state[PACMAN_NODE] * NUM_MOVES + MOVES[state[PACMAN_MOVE]].ordinal()][0];
+
+			EnumMap<GHOST, MOVE> ghostMoves;
+
+			if (_ghostsRequireAction())
+				ghostMoves = ghostController.getMove(this, timeDue);
+			else {
+				for (GHOST ghostType : GHOST_TYPES)
+					neutralGhostMoves.put(ghostType, MOVE.NEUTRAL);
+
+				ghostMoves = neutralGhostMoves;
+			}
+
+			advanceGame(move, ghostMoves);
+			steps++;
+		} while ((!isJunction(state[PACMAN_NODE]) || state[PACMAN_NODE] == from)
+				&& (state[FLAGS] & (PACMAN_WAS_EATEN | ALL_GHOSTS_EATEN)) == 0
+				&& state[LEVEL_COUNT] == level && !_flag(GAME_OVER));
+
+		return steps;
+	}
+
+	private boolean _ghostsRequireAction() {
+		for (GHOST ghostType : GHOST_TYPES)
+			if (doesGhostRequireAction(ghostType))
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * _record: journals the state before an advance if undo is enabled.
+	 */
+	private void _record() {
+		if (journal != null)
+			journal.push(state);
+	}
+
 	/**
 	 * Updates the state of Ms Pac-Man given the move returned by the
 	 * controller.
@@ -437,8 +901,8 @@ public final class Game {
 		_updateLairTimes();
 		_updatePacManExtraLife();
 
-		totalTime++;
-		currentLevelTime++;
+		state[TOTAL_TIME]++;
+		state[CURRENT_LEVEL_TIME]++;
 
 		_checkLevelState(); // check if level/game is over
 	}
@@ -469,9 +933,9 @@ public final class Game {
 			_updatePacManExtraLife();
 
 		if (updateTotalTime)
-			totalTime++;
+			state[TOTAL_TIME]++;
 		if (updateLevelTime)
-			currentLevelTime++;
+			state[CURRENT_LEVEL_TIME]++;
 
 		_checkLevelState(); // check if level/game is over
 	}
@@ -480,26 +944,26 @@ public final class Game {
 	 * _update lair times.
 	 */
 	private void _updateLairTimes() {
-		for (Ghost ghost : ghosts.values())
-			if (ghost.lairTime > 0)
-				if (--ghost.lairTime == 0)
-					ghost.currentNodeIndex = currentMaze.initialGhostNodeIndex;
+		for (GHOST ghostType : GHOST_TYPES) {
+			int g = _ghost(ghostType);
+
+			if (state[g + GHOST_LAIR_TIME] > 0) {
+				_put(g + GHOST_LAIR_TIME, state[g + GHOST_LAIR_TIME] - 1);
+
+				if (state[g + GHOST_LAIR_TIME] == 0)
+					_put(g + GHOST_NODE, currentMaze.initialGhostNodeIndex);
+			}
+		}
 	}
 
 	/**
 	 * _update pac man extra life.
 	 */
 	private void _updatePacManExtraLife() {
-		if (!pacman.hasReceivedExtraLife && score >= EXTRA_LIFE_SCORE) // award
-																		// 1
-																		// extra
-																		// life
-																		// at
-																		// 10000
-																		// points
-		{
-			pacman.hasReceivedExtraLife = true;
-			pacman.numberOfLivesRemaining++;
+		// award 1 extra life at 10000 points
+		if (!_flag(EXTRA_LIFE_RECEIVED) && state[SCORE] >= EXTRA_LIFE_SCORE) {
+			_setFlag(EXTRA_LIFE_RECEIVED, true);
+			_put(PACMAN_LIVES, state[PACMAN_LIVES] + 1);
 		}
 	}
 
@@ -510,9 +974,12 @@ public final class Game {
 	 *            the move
 	 */
 	private void _updatePacMan(MOVE move) {
-		pacman.lastMoveMade = _correctPacManDir(move);
-		pacman.currentNodeIndex = pacman.lastMoveMade == MOVE.NEUTRAL ? pacman.currentNodeIndex
-				: currentMaze.graph[pacman.currentNodeIndex].neighbourhood.get(pacman.lastMoveMade);
+		MOVE lastMoveMade = _correctPacManDir(move);
+
+		_put(PACMAN_MOVE, lastMoveMade.ordinal());
+
+		if (lastMoveMade != MOVE.NEUTRAL)
+			_put(PACMAN_NODE, currentMaze.neighbours[state[PACMAN_NODE] * 4 + lastMoveMade.ordinal()]);
 	}
 
 	/**
@@ -523,16 +990,18 @@ public final class Game {
 	 * @return the mOVE
 	 */
 	private MOVE _correctPacManDir(MOVE direction) {
-		Node node = currentMaze.graph[pacman.currentNodeIndex];
+		int moves = currentMaze.moveMasks[state[PACMAN_NODE]];
 
 		// direction is correct, return it
-		if (node.neighbourhood.containsKey(direction))
+		if (_canMove(moves, direction))
 			return direction;
 		else {
 			// try to use previous direction (i.e., continue in the same
 			// direction)
-			if (node.neighbourhood.containsKey(pacman.lastMoveMade))
-				return pacman.lastMoveMade;
+			MOVE lastMoveMade = MOVES[state[PACMAN_MOVE]];
+
+			if (_canMove(moves, lastMoveMade))
+				return lastMoveMade;
 			// else stay put
 			else
 				return MOVE.NEUTRAL;
@@ -546,15 +1015,22 @@ public final class Game {
 	 *            the moves
 	 */
 	private void _updateGhosts(EnumMap<GHOST, MOVE> moves) {
-		for (Entry<GHOST, MOVE> entry : moves.entrySet()) {
-			Ghost ghost = ghosts.get(entry.getKey());
-
-			if (ghost.lairTime == 0) {
-				if (ghost.edibleTime == 0 || ghost.edibleTime % GHOST_SPEED_REDUCTION != 0) {
-					ghost.lastMoveMade = _checkGhostDir(ghost, entry.getValue());
-					moves.put(entry.getKey(), ghost.lastMoveMade);
-					ghost.currentNodeIndex = currentMaze.graph[ghost.currentNodeIndex].neighbourhood
-							.get(ghost.lastMoveMade);
+		for (GHOST ghostType : GHOST_TYPES) {
+			MOVE move = moves.get(ghostType);
+
+			if (move == null)
+				continue;
+
+			int g = _ghost(ghostType);
+			int edibleTime = state[g + GHOST_EDIBLE_TIME];
+
+			if (state[g + GHOST_LAIR_TIME] == 0) {
+				if (edibleTime == 0 || edibleTime % GHOST_SPEED_REDUCTION != 0) {
+					MOVE lastMoveMade = _checkGhostDir(g, move);
+
+					_put(g + GHOST_MOVE, lastMoveMade.ordinal());
+					moves.put(ghostType, lastMoveMade);
+					_put(g + GHOST_NODE, currentMaze.neighbours[state[g + GHOST_NODE] * 4 + lastMoveMade.ordinal()]);
 				}
 			}
 		}
@@ -562,14 +1038,17 @@ public final class Game {
 
 	private EnumMap<GHOST, MOVE> _completeGhostMoves(EnumMap<GHOST, MOVE> moves) {
 		if (moves == null) {
-			moves = new EnumMap<GHOST, MOVE>(GHOST.class);
+			if (currentGhostMoves == null)
+				currentGhostMoves = new EnumMap<GHOST, MOVE>(GHOST.class);
 
-			for (GHOST ghostType : GHOST.values())
-				moves.put(ghostType, ghosts.get(ghostType).lastMoveMade);
+			moves = currentGhostMoves;
+
+			for (GHOST ghostType : GHOST_TYPES)
+				moves.put(ghostType, MOVES[state[_ghost(ghostType) + GHOST_MOVE]]);
 		}
 
 		if (moves.size() < NUM_GHOSTS)
-			for (GHOST ghostType : GHOST.values())
+			for (GHOST ghostType : GHOST_TYPES)
 				if (!moves.containsKey(ghostType))
 					moves.put(ghostType, MOVE.NEUTRAL);
 
@@ -579,27 +1058,29 @@ public final class Game {
 	/**
 	 * _check ghost dir.
 	 * 
-	 * @param ghost
-	 *            the ghost
+	 * @param g
+	 *            the offset of the ghost in the state
 	 * @param direction
 	 *            the direction
 	 * @return the mOVE
 	 */
-	private MOVE _checkGhostDir(Ghost ghost, MOVE direction) {
+	private MOVE _checkGhostDir(int g, MOVE direction) {
 		// Gets the neighbours of the node with the node that would correspond
 		// to reverse removed
-		Node node = currentMaze.graph[ghost.currentNodeIndex];
+		int node = state[g + GHOST_NODE];
+		int possible = currentMaze.moveMasks[node];
+		MOVE lastMoveMade = MOVES[state[g + GHOST_MOVE]];
 
 		// The direction is possible and not opposite to the previous direction
 		// of that ghost
-		if (node.neighbourhood.containsKey(direction) && direction != ghost.lastMoveMade.opposite())
+		if (_canMove(possible, direction) && direction != lastMoveMade.opposite())
 			return direction;
 		else {
-			if (node.neighbourhood.containsKey(ghost.lastMoveMade))
-				return ghost.lastMoveMade;
+			if (_canMove(possible, lastMoveMade))
+				return lastMoveMade;
 			else {
-				MOVE[] moves = node.allPossibleMoves.get(ghost.lastMoveMade);
-				return moves[rnd.nextInt(moves.length)];
+				MOVE[] moves = currentMaze.possibleMoves[node * NUM_MOVES + lastMoveMade.ordinal()];
+				return moves[_random(moves.length)];
 			}
 		}
 	}
@@ -608,14 +1089,15 @@ public final class Game {
 	 * _eat pill.
 	 */
 	private void _eatPill() {
-		pillWasEaten = false;
+		_setFlag(PILL_WAS_EATEN, false);
 
-		int pillIndex = currentMaze.graph[pacman.currentNodeIndex].pillIndex;
+		int pillIndex = currentMaze.graph[state[PACMAN_NODE]].pillIndex;
 
-		if (pillIndex >= 0 && pills.get(pillIndex)) {
-			score += PILL;
-			pills.clear(pillIndex);
-			pillWasEaten = true;
+		if (pillIndex >= 0 && _pill(pillIndex)) {
+			_put(SCORE, state[SCORE] + PILL);
+			_setPill(pillIndex, false);
+			state[PILLS_LEFT]--;
+			_setFlag(PILL_WAS_EATEN, true);
 		}
 	}
 
@@ -623,25 +1105,28 @@ public final class Game {
 	 * _eat power pill.
 	 */
 	private void _eatPowerPill() {
-		powerPillWasEaten = false;
+		_setFlag(POWER_PILL_WAS_EATEN, false);
 
-		int powerPillIndex = currentMaze.graph[pacman.currentNodeIndex].powerPillIndex;
+		int powerPillIndex = currentMaze.graph[state[PACMAN_NODE]].powerPillIndex;
 
-		if (powerPillIndex >= 0 && powerPills.get(powerPillIndex)) {
-			score += POWER_PILL;
-			ghostEatMultiplier = 1;
-			powerPills.clear(powerPillIndex);
+		if (powerPillIndex >= 0 && isPowerPillStillAvailable(powerPillIndex)) {
+			_put(SCORE, state[SCORE] + POWER_PILL);
+			state[GHOST_EAT_MULTIPLIER] = 1;
+			_put(POWER_PILLS, state[POWER_PILLS] & ~(1 << powerPillIndex));
 
-			int newEdibleTime = (int) (EDIBLE_TIME * (Math.pow(EDIBLE_TIME_REDUCTION, levelCount
+			int newEdibleTime = (int) (EDIBLE_TIME * (Math.pow(EDIBLE_TIME_REDUCTION, state[LEVEL_COUNT]
 					% LEVEL_RESET_REDUCTION)));
 
-			for (Ghost ghost : ghosts.values())
-				if (ghost.lairTime == 0)
-					ghost.edibleTime = newEdibleTime;
+			for (GHOST ghostType : GHOST_TYPES) {
+				int g = _ghost(ghostType);
+
+				if (state[g + GHOST_LAIR_TIME] == 0)
+					_put(g + GHOST_EDIBLE_TIME, newEdibleTime);
 				else
-					ghost.edibleTime = 0;
+					_put(g + GHOST_EDIBLE_TIME, 0);
+			}
 
-			powerPillWasEaten = true;
+			_setFlag(POWER_PILL_WAS_EATEN, true);
 		}
 	}
 
@@ -649,19 +1134,24 @@ public final class Game {
 		boolean reversed = false;
 		boolean globalReverse = false;
 
-		if (Math.random() < GHOST_REVERSAL)
+		if (SplitMix64.toDouble(_random()) < GHOST_REVERSAL)
 			globalReverse = true;
 
-		for (Entry<GHOST, MOVE> entry : moves.entrySet()) {
-			Ghost ghost = ghosts.get(entry.getKey());
+		for (GHOST ghostType : GHOST_TYPES) {
+			if (!moves.containsKey(ghostType))
+				continue;
+
+			int g = _ghost(ghostType);
+			MOVE lastMoveMade = MOVES[state[g + GHOST_MOVE]];
 
-			if (currentLevelTime > 1 && ghost.lairTime == 0 && ghost.lastMoveMade != MOVE.NEUTRAL) {
-				if (force || (powerPillWasEaten || globalReverse)) {
-					ghost.lastMoveMade = ghost.lastMoveMade.opposite();
-					ghost.currentNodeIndex = currentMaze.graph[ghost.currentNodeIndex].neighbourhood
-							.get(ghost.lastMoveMade);
+			if (state[CURRENT_LEVEL_TIME] > 1 && state[g + GHOST_LAIR_TIME] == 0
+					&& lastMoveMade != MOVE.NEUTRAL) {
+				if (force || (_flag(POWER_PILL_WAS_EATEN) || globalReverse)) {
+					lastMoveMade = lastMoveMade.opposite();
+					_put(g + GHOST_MOVE, lastMoveMade.ordinal());
+					_put(g + GHOST_NODE, currentMaze.neighbours[state[g + GHOST_NODE] * 4 + lastMoveMade.ordinal()]);
 					reversed = true;
-					timeOfLastGlobalReversal = totalTime;
+					state[TIME_OF_LAST_GLOBAL_REVERSAL] = state[TOTAL_TIME];
 				}
 			}
 		}
@@ -673,33 +1163,34 @@ public final class Game {
 	 * _feast.
 	 */
 	private void _feast() {
-		pacmanWasEaten = false;
+		_setFlag(PACMAN_WAS_EATEN, false);
 
-		for (GHOST ghost : GHOST.values())
-			ghostsEaten.put(ghost, false);
+		for (GHOST ghost : GHOST_TYPES)
+			_setFlag(GHOST_EATEN << ghost.ordinal(), false);
 
-		for (Ghost ghost : ghosts.values()) {
-			int distance = getShortestPathDistance(pacman.currentNodeIndex, ghost.currentNodeIndex);
+		for (GHOST ghostType : GHOST_TYPES) {
+			int g = _ghost(ghostType);
+			int distance = getShortestPathDistance(state[PACMAN_NODE], state[g + GHOST_NODE]);
 
 			if (distance <= EAT_DISTANCE && distance != -1) {
-				if (ghost.edibleTime > 0) // pac-man eats ghost
+				if (state[g + GHOST_EDIBLE_TIME] > 0) // pac-man eats ghost
 				{
-					score += GHOST_EAT_SCORE * ghostEatMultiplier;
-					ghostEatMultiplier *= 2;
-					ghost.edibleTime = 0;
-					ghost.lairTime = (int) (COMMON_LAIR_TIME * (Math.pow(LAIR_REDUCTION, levelCount
-							% LEVEL_RESET_REDUCTION)));
-					ghost.currentNodeIndex = currentMaze.lairNodeIndex;
-					ghost.lastMoveMade = MOVE.NEUTRAL;
-
-					ghostsEaten.put(ghost.type, true);
+					_put(SCORE, state[SCORE] + GHOST_EAT_SCORE * state[GHOST_EAT_MULTIPLIER]);
+					state[GHOST_EAT_MULTIPLIER] *= 2;
+					_put(g + GHOST_EDIBLE_TIME, 0);
+					_put(g + GHOST_LAIR_TIME, (int) (COMMON_LAIR_TIME * (Math.pow(LAIR_REDUCTION,
+							state[LEVEL_COUNT] % LEVEL_RESET_REDUCTION))));
+					_put(g + GHOST_NODE, currentMaze.lairNodeIndex);
+					_put(g + GHOST_MOVE, MOVE.NEUTRAL.ordinal());
+
+					_setFlag(GHOST_EATEN << ghostType.ordinal(), true);
 				} else // ghost eats pac-man
 				{
-					pacman.numberOfLivesRemaining--;
-					pacmanWasEaten = true;
+					_put(PACMAN_LIVES, state[PACMAN_LIVES] - 1);
+					_setFlag(PACMAN_WAS_EATEN, true);
 
-					if (pacman.numberOfLivesRemaining <= 0)
-						gameOver = true;
+					if (state[PACMAN_LIVES] <= 0)
+						_setFlag(GAME_OVER, true);
 					else
 						_levelReset();
 
@@ -708,22 +1199,29 @@ public final class Game {
 			}
 		}
 
-		for (Ghost ghost : ghosts.values())
-			if (ghost.edibleTime > 0)
-				ghost.edibleTime--;
+		for (GHOST ghostType : GHOST_TYPES) {
+			int g = _ghost(ghostType);
+
+			if (state[g + GHOST_EDIBLE_TIME] > 0)
+				_put(g + GHOST_EDIBLE_TIME, state[g + GHOST_EDIBLE_TIME] - 1);
+		}
 	}
 
 	/**
 	 * _check level state.
 	 */
 	private void _checkLevelState() {
+		if (prefetchMazes)
+			_prefetchNextMaze();
+
 		// put a cap on the total time a game can be played for
-		if (totalTime + 1 > MAX_TIME) {
-			gameOver = true;
-			score += pacman.numberOfLivesRemaining * AWARD_LIFE_LEFT;
+		if (state[TOTAL_TIME] + 1 > MAX_TIME) {
+			_setFlag(GAME_OVER, true);
+			_put(SCORE, state[SCORE] + state[PACMAN_LIVES] * AWARD_LIFE_LEFT);
 		}
 		// if all pills have been eaten or the time is up...
-		else if ((pills.isEmpty() && powerPills.isEmpty()) || currentLevelTime >= LEVEL_LIMIT)
+		else if ((state[PILLS_LEFT] == 0 && state[POWER_PILLS] == 0)
+				|| state[CURRENT_LEVEL_TIME] >= LEVEL_LIMIT)
 			_newLevelReset();
 	}
 
@@ -737,7 +1235,7 @@ public final class Game {
 	 * @return whether Ms Pac-Man was eaten.
 	 */
 	public boolean isPacmanDead() {
-		return pacmanWasEaten;
+		return _flag(PACMAN_WAS_EATEN);
 	}
 
 	/**
@@ -746,14 +1244,14 @@ public final class Game {
 	 * @return whether a ghost was eaten.
 	 */
 	public boolean wasGhostEaten(GHOST ghost) {
-		return ghostsEaten.get(ghost);
+		return _flag(GHOST_EATEN << ghost.ordinal());
 	}
 
 	public int getNumGhostsEaten() {
 		int count = 0;
 
-		for (GHOST ghost : GHOST.values())
-			if (ghostsEaten.get(ghost))
+		for (GHOST ghost : GHOST_TYPES)
+			if (wasGhostEaten(ghost))
 				count++;
 
 		return count;
@@ -765,7 +1263,7 @@ public final class Game {
 	 * @return whether a pill was eaten.
 	 */
 	public boolean wasPillEaten() {
-		return pillWasEaten;
+		return _flag(PILL_WAS_EATEN);
 	}
 
 	/**
@@ -774,7 +1272,7 @@ public final class Game {
 	 * @return whether a power pill was eaten.
 	 */
 	public boolean wasPowerPillEaten() {
-		return powerPillWasEaten;
+		return _flag(POWER_PILL_WAS_EATEN);
 	}
 
 	/**
@@ -784,7 +1282,7 @@ public final class Game {
 	 *         power pill reversals)
 	 */
 	public int getTimeOfLastGlobalReversal() {
-		return timeOfLastGlobalReversal;
+		return state[TIME_OF_LAST_GLOBAL_REVERSAL];
 	}
 
 	/**
@@ -795,7 +1293,7 @@ public final class Game {
 	 * @return true, if successful
 	 */
 	public boolean gameOver() {
-		return gameOver;
+		return _flag(GAME_OVER);
 	}
 
 	/**
@@ -835,7 +1333,7 @@ public final class Game {
 	 * @return The maze index
 	 */
 	public int getMazeIndex() {
-		return mazeIndex;
+		return state[MAZE_INDEX];
 	}
 
 	/**
@@ -844,7 +1342,7 @@ public final class Game {
 	 * @return The current level
 	 */
 	public int getCurrentLevel() {
-		return levelCount;
+		return state[LEVEL_COUNT];
 	}
 
 	/**
@@ -862,7 +1360,7 @@ public final class Game {
 	 * @return the current value awarded for eating a ghost.
 	 */
 	public int getGhostCurrentEdibleScore() {
-		return GHOST_EAT_SCORE * ghostEatMultiplier;
+		return GHOST_EAT_SCORE * state[GHOST_EAT_MULTIPLIER];
 	}
 
 	/**
@@ -883,7 +1381,7 @@ public final class Game {
 	 * @return true, if is pill still available
 	 */
 	public boolean isPillStillAvailable(int pillIndex) {
-		return pills.get(pillIndex);
+		return _pill(pillIndex);
 	}
 
 	/**
@@ -894,7 +1392,7 @@ public final class Game {
 	 * @return true, if is power pill still available
 	 */
 	public boolean isPowerPillStillAvailable(int powerPillIndex) {
-		return powerPills.get(powerPillIndex);
+		return (state[POWER_PILLS] & (1 << powerPillIndex)) != 0;
 	}
 
 	/**
@@ -957,7 +1455,7 @@ public final class Game {
 	 * @return the pacman current node index
 	 */
 	public int getPacmanPosition() {
-		return pacman.currentNodeIndex;
+		return state[PACMAN_NODE];
 	}
 
 	/**
@@ -966,7 +1464,7 @@ public final class Game {
 	 * @return the pacman last move made
 	 */
 	public MOVE getPacmanLastMoveMade() {
-		return pacman.lastMoveMade;
+		return MOVES[state[PACMAN_MOVE]];
 	}
 
 	/**
@@ -975,7 +1473,7 @@ public final class Game {
 	 * @return the number of lives remaining
 	 */
 	public int getLivesRemaining() {
-		return pacman.numberOfLivesRemaining;
+		return state[PACMAN_LIVES];
 	}
 
 	/**
@@ -986,7 +1484,7 @@ public final class Game {
 	 * @return the ghost current node index
 	 */
 	public int getGhostCurrentNodeIndex(GHOST ghostType) {
-		return ghosts.get(ghostType).currentNodeIndex;
+		return state[_ghost(ghostType) + GHOST_NODE];
 	}
 
 	/**
@@ -997,7 +1495,7 @@ public final class Game {
 	 * @return the ghost last move made
 	 */
 	public MOVE getGhostLastMoveMade(GHOST ghostType) {
-		return ghosts.get(ghostType).lastMoveMade;
+		return MOVES[state[_ghost(ghostType) + GHOST_MOVE]];
 	}
 
 	/**
@@ -1008,7 +1506,7 @@ public final class Game {
 	 * @return the ghost edible time
 	 */
 	public int getGhostEdibleTime(GHOST ghostType) {
-		return ghosts.get(ghostType).edibleTime;
+		return state[_ghost(ghostType) + GHOST_EDIBLE_TIME];
 	}
 
 	/**
@@ -1019,7 +1517,7 @@ public final class Game {
 	 * @return true, if is ghost edible
 	 */
 	public boolean isGhostEdible(GHOST ghostType) {
-		return ghosts.get(ghostType).edibleTime > 0;
+		return state[_ghost(ghostType) + GHOST_EDIBLE_TIME] > 0;
 	}
 
 	/**
@@ -1028,7 +1526,21 @@ public final class Game {
 	 * @return the score
 	 */
 	public int getScore() {
-		return score;
+		return state[SCORE];
+	}
+
+	/**
+	 * Returns the Zobrist hash of the position: the maze, score, lives, the
+	 * positions and last moves of all characters, the edible and lair times of
+	 * the ghosts and the remaining pills and power pills. It is maintained
+	 * incrementally as the game advances, so two games with the same position
+	 * have the same hash irrespective of how they got there. Suitable as the key
+	 * of a transposition table.
+	 *
+	 * @return the hash of the position
+	 */
+	public long getZobristHash() {
+		return (long) state[HASH_HI] << 32 | (state[HASH_LO] & 0xFFFFFFFFL);
 	}
 
 	/**
@@ -1038,7 +1550,7 @@ public final class Game {
 	 * @return the current level time
 	 */
 	public int getCurrentLevelTime() {
-		return currentLevelTime;
+		return state[CURRENT_LEVEL_TIME];
 	}
 
 	/**
@@ -1047,7 +1559,7 @@ public final class Game {
 	 * @return the total time
 	 */
 	public int getTotalTime() {
-		return totalTime;
+		return state[TOTAL_TIME];
 	}
 
 	/**
@@ -1074,7 +1586,7 @@ public final class Game {
 	 * @return the number of active pills
 	 */
 	public int getAmountOfRemainingPills() {
-		return pills.cardinality();
+		return state[PILLS_LEFT];
 	}
 
 	/**
@@ -1083,7 +1595,7 @@ public final class Game {
 	 * @return the number of active power pills
 	 */
 	public int getAmountOfRemainingPowerPills() {
-		return powerPills.cardinality();
+		return Integer.bitCount(state[POWER_PILLS]);
 	}
 
 	/**
@@ -1094,38 +1606,85 @@ public final class Game {
 	 * @return the ghost lair time
 	 */
 	public int getGhostLairTime(GHOST ghostType) {
-		return ghosts.get(ghostType).lairTime;
+		return state[_ghost(ghostType) + GHOST_LAIR_TIME];
 	}
 
 	/**
-	 * returns the indices of all active pills in the mazes[gs.curMaze]
+	 * returns the indices of all active pills in the mazes[gs.curMaze], in the
+	 * order of getPillIndices(). This allocates a new array on every call; to
+	 * go through the remaining pills without allocating, see
+	 * getRemainingPillNodeIndex() and forEachRemainingPill().
 	 * 
 	 * @return the active pills indices
 	 */
 	public int[] getRemainingPillsIndices() {
-		int[] indices = new int[pills.cardinality()];
+		int[] indices = new int[state[PILLS_LEFT]];
 
 		int index = 0;
 
-		for (int i = 0; i < currentMaze.pillIndices.length; i++)
-			if (pills.get(i))
-				indices[index++] = currentMaze.pillIndices[i];
+		for (int slot = PILLS; slot < STATE_SIZE; slot++)
+			for (int bits = state[slot]; bits != 0; bits &= bits - 1)
+				indices[index++] = currentMaze.pillIndices[(slot - PILLS) << 5 | Integer.numberOfTrailingZeros(bits)];
 
 		return indices;
 	}
 
+	/**
+	 * Gets the node index of a remaining pill by its position in a dense view
+	 * of the remaining pills. Together with getAmountOfRemainingPills() this is
+	 * a cursor over the remaining pills that allocates nothing:
+	 * 
+	 * <pre>
+	 * for (int i = 0; i &lt; game.getAmountOfRemainingPills(); i++)
+	 * 	... game.getRemainingPillNodeIndex(i) ...
+	 * </pre>
+	 * 
+	 * The view is built the first time it is used and then kept up to date as
+	 * pills are eaten, by moving the last remaining pill into the place of
+	 * the one eaten. The order of the pills is therefore arbitrary and changes
+	 * whenever a pill is eaten.
+	 * 
+	 * @param position
+	 *            the position, from 0 to getAmountOfRemainingPills()-1
+	 * @return the node index of the pill
+	 */
+	public int getRemainingPillNodeIndex(int position) {
+		if (!pillViewValid)
+			_buildPillView();
+
+		if (position >= pillViewSize)
+			throw new IndexOutOfBoundsException("Pill " + position + " of " + pillViewSize + " remaining");
+
+		return currentMaze.pillIndices[pillView[position]];
+	}
+
+	/**
+	 * Calls an action with the node index of every remaining pill, in the
+	 * order of getRemainingPillNodeIndex(), without allocating.
+	 * 
+	 * @param action
+	 *            the action
+	 */
+	public void forEachRemainingPill(IntConsumer action) {
+		if (!pillViewValid)
+			_buildPillView();
+
+		for (int i = 0; i < pillViewSize; i++)
+			action.accept(currentMaze.pillIndices[pillView[i]]);
+	}
+
 	/**
 	 * returns the indices of all active power pills in the mazes[gs.curMaze]
 	 * 
 	 * @return the active power pills indices
 	 */
 	public int[] getActivePowerPillsIndices() {
-		int[] indices = new int[powerPills.cardinality()];
+		int[] indices = new int[getAmountOfRemainingPowerPills()];
 
 		int index = 0;
 
 		for (int i = 0; i < currentMaze.powerPillIndices.length; i++)
-			if (powerPills.get(i))
+			if (isPowerPillStillAvailable(i))
 				indices[index++] = currentMaze.powerPillIndices[i];
 
 		return indices;
@@ -1141,10 +1700,11 @@ public final class Game {
 	public boolean doesGhostRequireAction(GHOST ghostType) {
 		// inlcude neutral here for the unique case where the ghost just left
 		// the lair
-		return ((isJunction(ghosts.get(ghostType).currentNodeIndex) || (ghosts.get(ghostType).lastMoveMade == MOVE.NEUTRAL)
-				&& ghosts.get(ghostType).currentNodeIndex == currentMaze.initialGhostNodeIndex) && (ghosts
-				.get(ghostType).edibleTime == 0 || ghosts.get(ghostType).edibleTime
-				% GHOST_SPEED_REDUCTION != 0));
+		int g = _ghost(ghostType);
+
+		return ((isJunction(state[g + GHOST_NODE]) || (state[g + GHOST_MOVE] == MOVE.NEUTRAL.ordinal())
+				&& state[g + GHOST_NODE] == currentMaze.initialGhostNodeIndex) && (state[g + GHOST_EDIBLE_TIME] == 0
+				|| state[g + GHOST_EDIBLE_TIME] % GHOST_SPEED_REDUCTION != 0));
 	}
 
 	/**
@@ -1155,7 +1715,7 @@ public final class Game {
 	 * @return true, if is junction
 	 */
 	public boolean isJunction(int nodeIndex) {
-		return currentMaze.graph[nodeIndex].numNeighbouringNodes > 2;
+		return Integer.bitCount(currentMaze.moveMasks[nodeIndex]) > 2;
 	}
 
 	/**
@@ -1166,7 +1726,7 @@ public final class Game {
 	 * @return The set of possible moves
 	 */
 	public MOVE[] getPossibleMoves(int nodeIndex) {
-		return currentMaze.graph[nodeIndex].allPossibleMoves.get(MOVE.NEUTRAL);
+		return currentMaze.possibleMoves[nodeIndex * NUM_MOVES + MOVE.NEUTRAL.ordinal()];
 	}
 
 	/**
@@ -1180,7 +1740,7 @@ public final class Game {
 	 * @return The set of possible moves
 	 */
 	public MOVE[] getPossibleMoves(int nodeIndex, MOVE lastModeMade) {
-		return currentMaze.graph[nodeIndex].allPossibleMoves.get(lastModeMade);
+		return currentMaze.possibleMoves[nodeIndex * NUM_MOVES + lastModeMade.ordinal()];
 	}
 
 	/**
@@ -1191,7 +1751,7 @@ public final class Game {
 	 * @return The set of neighbouring nodes
 	 */
 	public int[] getNeighbouringNodes(int nodeIndex) {
-		return currentMaze.graph[nodeIndex].allNeighbouringNodes.get(MOVE.NEUTRAL);
+		return currentMaze.neighbouringNodes[nodeIndex * NUM_MOVES + MOVE.NEUTRAL.ordinal()];
 	}
 
 	/**
@@ -1207,7 +1767,7 @@ public final class Game {
 	 *         the last move made
 	 */
 	public int[] getNeighbouringNodes(int nodeIndex, MOVE lastModeMade) {
-		return currentMaze.graph[nodeIndex].allNeighbouringNodes.get(lastModeMade);
+		return currentMaze.neighbouringNodes[nodeIndex * NUM_MOVES + lastModeMade.ordinal()];
 	}
 
 	/**
@@ -1222,9 +1782,7 @@ public final class Game {
 	 * @return The node index of the node the move takes one to
 	 */
 	public int getNeighbour(int nodeIndex, MOVE moveToBeMade) {
-		Integer neighbour = currentMaze.graph[nodeIndex].neighbourhood.get(moveToBeMade);
-
-		return neighbour == null ? -1 : neighbour;
+		return moveToBeMade == MOVE.NEUTRAL ? -1 : currentMaze.neighbours[nodeIndex * 4 + moveToBeMade.ordinal()];
 	}
 
 	/**
@@ -1238,12 +1796,9 @@ public final class Game {
 	 * @return the move to make to reach direct neighbour
 	 */
 	public MOVE getMoveToMakeToReachDirectNeighbour(int currentNodeIndex, int neighbourNodeIndex) {
-		for (MOVE move : MOVE.values()) {
-			if (currentMaze.graph[currentNodeIndex].neighbourhood.containsKey(move)
-					&& currentMaze.graph[currentNodeIndex].neighbourhood.get(move) == neighbourNodeIndex) {
-				return move;
-			}
-		}
+		for (int i = 0; i < 4; i++)
+			if (currentMaze.neighbours[currentNodeIndex * 4 + i] == neighbourNodeIndex)
+				return MOVES[i];
 
 		return null;
 	}
@@ -1264,12 +1819,8 @@ public final class Game {
 	public int getShortestPathDistance(int fromNodeIndex, int toNodeIndex) {
 		if (fromNodeIndex == toNodeIndex)
 			return 0;
-		else if (fromNodeIndex < toNodeIndex)
-			return currentMaze.shortestPathDistances[((toNodeIndex * (toNodeIndex + 1)) / 2)
-					+ fromNodeIndex];
 		else
-			return currentMaze.shortestPathDistances[((fromNodeIndex * (fromNodeIndex + 1)) / 2)
-					+ toNodeIndex];
+			return currentMaze.getDistance(fromNodeIndex, toNodeIndex);
 	}
 
 	/**
@@ -1372,11 +1923,11 @@ public final class Game {
 			DM distanceMeasure) {
 		double minDistance = Integer.MAX_VALUE;
 		int target = -1;
+		boolean path = distanceMeasure == DM.PATH;
 
 		for (int i = 0; i < targetNodeIndices.length; i++) {
-			double distance = 0;
-
-			distance = getDistance(targetNodeIndices[i], fromNodeIndex, distanceMeasure);
+			double distance = path ? getShortestPathDistance(targetNodeIndices[i], fromNodeIndex)
+					: getDistance(targetNodeIndices[i], fromNodeIndex, distanceMeasure);
 
 			if (distance < minDistance) {
 				minDistance = distance;
@@ -1402,11 +1953,11 @@ public final class Game {
 			DM distanceMeasure) {
 		double maxDistance = Integer.MIN_VALUE;
 		int target = -1;
+		boolean path = distanceMeasure == DM.PATH;
 
 		for (int i = 0; i < targetNodeIndices.length; i++) {
-			double distance = 0;
-
-			distance = getDistance(targetNodeIndices[i], fromNodeIndex, distanceMeasure);
+			double distance = path ? getShortestPathDistance(targetNodeIndices[i], fromNodeIndex)
+					: getDistance(targetNodeIndices[i], fromNodeIndex, distanceMeasure);
 
 			if (distance > maxDistance) {
 				maxDistance = distance;
@@ -1417,6 +1968,101 @@ public final class Game {
 		return target;
 	}
 
+	/**
+	 * Gets the active pill closest to a node by shortest path distance: the
+	 * same node getClosestNodeIndexFromNodeIndex() returns for the active pills
+	 * (followed by the active power pills) and DM.PATH, without computing the
+	 * distance to each of them. The pills are ordered by distance from every
+	 * node when the maze is loaded, so only the closer pills that have been
+	 * eaten are skipped.
+	 * 
+	 * @param fromNodeIndex
+	 *            the from node index
+	 * @param includePowerPills
+	 *            whether active power pills are targets too
+	 * @return the node index of the closest target, or -1 if there is none
+	 */
+	public int getClosestActivePillNodeIndex(int fromNodeIndex, boolean includePowerPills) {
+		int numPills = currentMaze.pillIndices.length;
+		byte[] order = currentMaze.pillsByDistance;
+		int minDistance = Integer.MAX_VALUE;
+		int target = -1;
+
+		for (int i = fromNodeIndex * numPills, end = i + numPills; i < end; i++) {
+			int pillIndex = order[i] & 0xFF;
+
+			if (_pill(pillIndex)) {
+				target = currentMaze.pillIndices[pillIndex];
+				minDistance = getShortestPathDistance(target, fromNodeIndex);
+				break;
+			}
+		}
+
+		if (includePowerPills) {
+			for (int i = 0; i < currentMaze.powerPillIndices.length; i++) {
+				if (isPowerPillStillAvailable(i)) {
+					int distance = getShortestPathDistance(currentMaze.powerPillIndices[i], fromNodeIndex);
+
+					if (distance < minDistance) {
+						minDistance = distance;
+						target = currentMaze.powerPillIndices[i];
+					}
+				}
+			}
+		}
+
+		return target;
+	}
+
+	/**
+	 * Gets the active pill farthest from a node by shortest path distance,
+	 * the counterpart of getClosestActivePillNodeIndex() for
+	 * getFarthestNodeIndexFromNodeIndex().
+	 * 
+	 * @param fromNodeIndex
+	 *            the from node index
+	 * @param includePowerPills
+	 *            whether active power pills are targets too
+	 * @return the node index of the farthest target, or -1 if there is none
+	 */
+	public int getFarthestActivePillNodeIndex(int fromNodeIndex, boolean includePowerPills) {
+		int numPills = currentMaze.pillIndices.length;
+		byte[] order = currentMaze.pillsByDistance;
+		int maxDistance = Integer.MIN_VALUE;
+		int target = -1;
+
+		// pills at the same distance are in the order of their indices, so
+		// going backwards the last one at the largest distance is the first
+		for (int i = fromNodeIndex * numPills + numPills - 1, start = fromNodeIndex * numPills; i >= start; i--) {
+			int pillIndex = order[i] & 0xFF;
+
+			if (_pill(pillIndex)) {
+				int distance = getShortestPathDistance(currentMaze.pillIndices[pillIndex], fromNodeIndex);
+
+				if (distance < maxDistance)
+					break;
+
+				maxDistance = distance;
+				target = currentMaze.pillIndices[pillIndex];
+			}
+		}
+
+		if (includePowerPills) {
+			for (int i = 0; i < currentMaze.powerPillIndices.length; i++) {
+				if (isPowerPillStillAvailable(i)) {
+					int distance = getShortestPathDistance(currentMaze.powerPillIndices[i], fromNodeIndex);
+
+					if (distance > maxDistance) {
+						maxDistance = distance;
+						target = currentMaze.powerPillIndices[i];
+					}
+				}
+			}
+		}
+
+		return target;
+	}
+
 	/**
 	 * Gets the next move towards target.
 	 * 
@@ -1433,12 +2079,12 @@ public final class Game {
 
 		double minDistance = Integer.MAX_VALUE;
 
-		for (Entry<MOVE, Integer> entry : currentMaze.graph[fromNodeIndex].neighbourhood.entrySet()) {
-			double distance = getDistance(entry.getValue(), toNodeIndex, distanceMeasure);
+		for (MOVE candidate : getPossibleMoves(fromNodeIndex)) {
+			double distance = getDistance(getNeighbour(fromNodeIndex, candidate), toNodeIndex, distanceMeasure);
 
 			if (distance < minDistance) {
 				minDistance = distance;
-				move = entry.getKey();
+				move = candidate;
 			}
 		}
 
@@ -1461,12 +2107,12 @@ public final class Game {
 
 		double maxDistance = Integer.MIN_VALUE;
 
-		for (Entry<MOVE, Integer> entry : currentMaze.graph[fromNodeIndex].neighbourhood.entrySet()) {
-			double distance = getDistance(entry.getValue(), toNodeIndex, distanceMeasure);
+		for (MOVE candidate : getPossibleMoves(fromNodeIndex)) {
+			double distance = getDistance(getNeighbour(fromNodeIndex, candidate), toNodeIndex, distanceMeasure);
 
 			if (distance > maxDistance) {
 				maxDistance = distance;
-				move = entry.getKey();
+				move = candidate;
 			}
 		}
 
@@ -1494,13 +2140,12 @@ public final class Game {
 
 		double minDistance = Integer.MAX_VALUE;
 
-		for (Entry<MOVE, Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(
-				lastMoveMade).entrySet()) {
-			double distance = getDistance(entry.getValue(), toNodeIndex, distanceMeasure);
+		for (MOVE candidate : getPossibleMoves(fromNodeIndex, lastMoveMade)) {
+			double distance = getDistance(getNeighbour(fromNodeIndex, candidate), toNodeIndex, distanceMeasure);
 
 			if (distance < minDistance) {
 				minDistance = distance;
-				move = entry.getKey();
+				move = candidate;
 			}
 		}
 
@@ -1528,13 +2173,12 @@ public final class Game {
 
 		double maxDistance = Integer.MIN_VALUE;
 
-		for (Entry<MOVE, Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(
-				lastMoveMade).entrySet()) {
-			double distance = getDistance(entry.getValue(), toNodeIndex, distanceMeasure);
+		for (MOVE candidate : getPossibleMoves(fromNodeIndex, lastMoveMade)) {
+			double distance = getDistance(getNeighbour(fromNodeIndex, candidate), toNodeIndex, distanceMeasure);
 
 			if (distance > maxDistance) {
 				maxDistance = distance;
-				move = entry.getKey();
+				move = candidate;
 			}
 		}
 
@@ -1561,14 +2205,13 @@ public final class Game {
 
 		double minDistance = Integer.MAX_VALUE;
 
-		for (Entry<MOVE, Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(
-				lastMoveMade).entrySet()) {
-			double distance = getDistance(entry.getValue(), toNodeIndex, lastMoveMade,
+		for (MOVE candidate : getPossibleMoves(fromNodeIndex, lastMoveMade)) {
+			double distance = getDistance(getNeighbour(fromNodeIndex, candidate), toNodeIndex, lastMoveMade,
 					distanceMeasure);
 
 			if (distance < minDistance) {
 				minDistance = distance;
-				move = entry.getKey();
+				move = candidate;
 			}
 		}
 
@@ -1595,14 +2238,13 @@ public final class Game {
 
 		double maxDistance = Integer.MIN_VALUE;
 
-		for (Entry<MOVE, Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(
-				lastMoveMade).entrySet()) {
-			double distance = getDistance(entry.getValue(), toNodeIndex, lastMoveMade,
+		for (MOVE candidate : getPossibleMoves(fromNodeIndex, lastMoveMade)) {
+			double distance = getDistance(getNeighbour(fromNodeIndex, candidate), toNodeIndex, lastMoveMade,
 					distanceMeasure);
 
 			if (distance > maxDistance) {
 				maxDistance = distance;
-				move = entry.getKey();
+				move = candidate;
 			}
 		}
 
@@ -1639,7 +2281,7 @@ public final class Game {
 	 * @return the shortest path from start to target
 	 */
 	public int[] getShortestPath(int fromNodeIndex, int toNodeIndex) {
-		return caches[mazeIndex].getPathFromA2B(fromNodeIndex, toNodeIndex);
+		return getPathsCache(state[MAZE_INDEX]).getPathFromA2B(fromNodeIndex, toNodeIndex);
 	}
 
 	/**
@@ -1678,10 +2320,10 @@ public final class Game {
 	 * @return the shortest path from start to target
 	 */
 	public int[] getShortestPath(int fromNodeIndex, int toNodeIndex, MOVE lastMoveMade) {
-		if (currentMaze.graph[fromNodeIndex].neighbourhood.size() == 0)// lair
+		if (currentMaze.moveMasks[fromNodeIndex] == 0)// lair
 			return new int[0];
 
-		return caches[mazeIndex].getPathFromA2B(fromNodeIndex, toNodeIndex, lastMoveMade);
+		return getPathsCache(state[MAZE_INDEX]).getPathFromA2B(fromNodeIndex, toNodeIndex, lastMoveMade);
 	}
 
 	/**
@@ -1717,14 +2359,14 @@ public final class Game {
 	 * @return the exact distance of the path
 	 */
 	public int getShortestPathDistance(int fromNodeIndex, int toNodeIndex, MOVE lastMoveMade) {
-		if (currentMaze.graph[fromNodeIndex].neighbourhood.size() == 0)// lair
+		if (currentMaze.moveMasks[fromNodeIndex] == 0)// lair
 			return 0;
 
-		return caches[mazeIndex].getPathDistanceFromA2B(fromNodeIndex, toNodeIndex, lastMoveMade);
+		return getPathsCache(state[MAZE_INDEX]).getPathDistanceFromA2B(fromNodeIndex, toNodeIndex, lastMoveMade);
 	}
 
 	public ArrayList<GHOST> getGhosts() {
-		return new ArrayList<>(ghosts.keySet());
+		return new ArrayList<>(Arrays.asList(GHOST_TYPES));
 	}
 
 }
\ No newline at end of file
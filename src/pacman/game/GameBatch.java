@@ -0,0 +1,200 @@
+package pacman.game;
+
+import java.util.EnumMap;
+
+import static pacman.game.Constants.*;
+
+/**
+ * A batch of independent games that are advanced together, e.g. the playouts
+ * of a rollout-heavy agent. The batch owns the packed states of its games (see
+ * Game), random number generators included, and a single engine that is
+ * pointed at each state in turn, so advancing the batch allocates nothing and
+ * involves no Game objects per game.
+ *
+ * The results of the last time step are kept in structure-of-arrays form: one
+ * array per quantity, indexed by game (see getFlags(), getScores() etc.), so
+ * agents can scan them in tight loops over primitive arrays. Games that are
+ * over are no longer advanced.
+ */
+public final class GameBatch {
+	/**
+	 * Bits of the per-game flags returned by advanceAll().
+	 */
+	public static final int PILL_EATEN = 1, POWER_PILL_EATEN = 1 << 1, PACMAN_EATEN = 1 << 2,
+			GHOST_EATEN = 1 << 3, LEVEL_COMPLETED = 1 << 4, GAME_OVER = 1 << 5;
+
+	private final int size;
+	private final int[][] states;
+	private final Game engine = new Game();
+
+	// results of the last time step, one entry per game
+	private final int[] flags;
+	private final int[] scores;
+	private final int[] pacmanNodes;
+	private final int[] lives;
+	private final int[] pillsLeft;
+
+	/**
+	 * Creates a batch of the given number of games, all of which are at the
+	 * start of maze 0 until reset.
+	 *
+	 * @param size
+	 *            The number of games
+	 */
+	public GameBatch(int size) {
+		this.size = size;
+
+		states = new int[size][Game.STATE_SIZE];
+		flags = new int[size];
+		scores = new int[size];
+		pacmanNodes = new int[size];
+		lives = new int[size];
+		pillsLeft = new int[size];
+
+		reset(new Game(0), 0);
+	}
+
+	/**
+	 * Sets all games of the batch to the state of the game supplied. The
+	 * random number generator of game i is seeded with seed + i, so the games
+	 * diverge even if they are given the same moves.
+	 *
+	 * @param from
+	 *            The game to copy the state of
+	 * @param seed
+	 *            The seed of the random number generator of the first game
+	 */
+	public void reset(Game from, long seed) {
+		for (int i = 0; i < size; i++) {
+			set(i, from);
+			engine.setRandomSeed(seed + i);
+		}
+	}
+
+	/**
+	 * Sets one game of the batch to the state of the game supplied, including
+	 * the state of its random number generator.
+	 *
+	 * @param index
+	 *            The index of the game in the batch
+	 * @param from
+	 *            The game to copy the state of
+	 */
+	public void set(int index, Game from) {
+		from.snapshotInto(states[index]);
+		engine.bind(states[index]);
+		flags[index] = engine.gameOver() ? GAME_OVER : 0;
+		_collect(index);
+	}
+
+	/**
+	 * Advances every game that is not over by one time step.
+	 *
+	 * @param pacManMoves
+	 *            The move of Ms Pac-Man in each game
+	 * @param ghostMoves
+	 *            The moves of the ghosts in each game; an entry may be null,
+	 *            in which case the ghosts of that game keep their directions
+	 * @return the flags of each game (see PILL_EATEN etc.); the array is owned
+	 *         by the batch and overwritten by the next call
+	 */
+	public int[] advanceAll(MOVE[] pacManMoves, EnumMap<GHOST, MOVE>[] ghostMoves) {
+		for (int i = 0; i < size; i++) {
+			if ((flags[i] & GAME_OVER) != 0)
+				continue;
+
+			engine.bind(states[i]);
+
+			int level = engine.getCurrentLevel();
+			engine.advanceGame(pacManMoves[i], ghostMoves[i]);
+
+			int f = 0;
+
+			if (engine.wasPillEaten())
+				f |= PILL_EATEN;
+			if (engine.wasPowerPillEaten())
+				f |= POWER_PILL_EATEN;
+			if (engine.isPacmanDead())
+				f |= PACMAN_EATEN;
+			if (engine.getNumGhostsEaten() > 0)
+				f |= GHOST_EATEN;
+			if (engine.getCurrentLevel() != level)
+				f |= LEVEL_COMPLETED;
+			if (engine.gameOver())
+				f |= GAME_OVER;
+
+			flags[i] = f;
+			_collect(i);
+		}
+
+		return flags;
+	}
+
+	private void _collect(int index) {
+		scores[index] = engine.getScore();
+		pacmanNodes[index] = engine.getPacmanPosition();
+		lives[index] = engine.getLivesRemaining();
+		pillsLeft[index] = engine.getAmountOfRemainingPills();
+	}
+
+	/**
+	 * Gives access to one game of the batch, e.g. for a controller to choose
+	 * its moves. The game returned is the engine of the batch pointed at that
+	 * game's state: it is only valid until the next call on the batch and
+	 * must not be kept or advanced. Use copy() on it for a game of its own.
+	 *
+	 * @param index
+	 *            The index of the game in the batch
+	 * @return the game
+	 */
+	public Game game(int index) {
+		engine.bind(states[index]);
+		return engine;
+	}
+
+	/**
+	 * Returns the number of games that are not over.
+	 *
+	 * @return the number of games still running
+	 */
+	public int getNumActive() {
+		int active = 0;
+
+		for (int i = 0; i < size; i++)
+			if ((flags[i] & GAME_OVER) == 0)
+				active++;
+
+		return active;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The flags of the last time step of each game. As for the other
+	 * accessors below, the array is owned by the batch and must not be
+	 * modified.
+	 *
+	 * @return the flags, indexed by game
+	 */
+	public int[] getFlags() {
+		return flags;
+	}
+
+	public int[] getScores() {
+		return scores;
+	}
+
+	public int[] getPacmanPositions() {
+		return pacmanNodes;
+	}
+
+	public int[] getLivesRemaining() {
+		return lives;
+	}
+
+	public int[] getRemainingPills() {
+		return pillsLeft;
+	}
+}
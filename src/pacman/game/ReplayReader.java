@@ -0,0 +1,298 @@
+package pacman.game;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a replay written by ReplayWriter, either record by record or by seeking to any time step: a seek
+ * starts from the keyframe at the start of the block of the record and applies the deltas up to it. A replay
+ * whose writer did not finish, e.g. because the program died, is read up to its last complete block.
+ */
+public final class ReplayReader implements Closeable {
+	private final FileChannel channel;
+	private final int keyframeInterval;
+	private final Inflater inflater;
+	private final CRC32 crc = new CRC32();
+
+	private long[] blocks = new long[16];
+	private int numBlocks;
+	private int numRecords;
+
+	// the records of the block loaded, their length, the position of the
+	// next one and the time step it is of
+	private final int[] state = new int[Game.STATE_SIZE];
+	private byte[] records = new byte[0];
+	private byte[] stored = new byte[0];
+	private int loaded = -1;
+	private int limit;
+	private int position;
+	private int next;
+
+	public ReplayReader(String fileName) throws IOException {
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+
+		try {
+			ByteBuffer header = read(0, ReplayWriter.HEADER_SIZE);
+
+			if (header.getInt() != ReplayWriter.MAGIC || header.getInt() != ReplayWriter.VERSION)
+				throw new IOException("Not a replay: " + fileName);
+
+			keyframeInterval = header.getInt();
+
+			if (header.getInt() != Game.STATE_SIZE)
+				throw new IOException("Replay of a different version of the game: " + fileName);
+
+			inflater = (header.getInt() & ReplayWriter.COMPRESSED) != 0 ? new Inflater(true) : null;
+
+			scanBlocks();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Checks whether a file starts like a binary replay, as opposed to a
+	 * replay of getGameState() lines.
+	 *
+	 * @param fileName
+	 *            The file
+	 * @return whether it is a binary replay
+	 */
+	public static boolean isReplay(String fileName) {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(4);
+
+			while (magic.hasRemaining() && channel.read(magic) >= 0)
+				;
+
+			return magic.flip().remaining() == 4 && magic.getInt() == ReplayWriter.MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the number of time steps in the replay
+	 */
+	public int getNumTicks() {
+		return numRecords;
+	}
+
+	/**
+	 * @return the time step the next call to next() reads
+	 */
+	public int getPosition() {
+		return next;
+	}
+
+	/**
+	 * Reads the next time step into the game supplied. Replays do not record
+	 * the random number generator of the game, so the game gets the positions,
+	 * pills, scores etc. of the time step and its hash, but a generator state
+	 * of 0: it shows the recorded game, but advancing it does not continue it.
+	 *
+	 * @param target
+	 *            The game to set to the state of the time step
+	 * @return false if the replay is over, in which case the game is left
+	 *         unchanged
+	 */
+	public boolean next(Game target) throws IOException {
+		if (next >= numRecords)
+			return false;
+
+		if (next / keyframeInterval != loaded)
+			loadBlock(next / keyframeInterval);
+
+		readRecord();
+		target.restoreUnhashed(state);
+
+		return true;
+	}
+
+	/**
+	 * Moves to the given time step: the next call to next() reads it (with the
+	 * same caveat about the random number generator).
+	 *
+	 * @param tick
+	 *            The time step, from 0 to getNumTicks()
+	 */
+	public void seek(int tick) throws IOException {
+		if (tick < 0 || tick > numRecords)
+			throw new IllegalArgumentException("No time step " + tick + " in a replay of " + numRecords);
+
+		int block = tick / keyframeInterval;
+
+		// moving forward within the block loaded needs no seek
+		if (block != loaded || tick < next) {
+			if (block == numBlocks) {
+				next = tick;
+				return;
+			}
+
+			loadBlock(block);
+		}
+
+		while (next < tick)
+			readRecord();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (inflater != null)
+			inflater.end();
+
+		channel.close();
+	}
+
+	/*
+	 * Finds the blocks from their headers. A block that is cut short or,
+	 * being the last one, does not match its checksum was being written when
+	 * the writer stopped; it and anything after it is ignored.
+	 */
+	private void scanBlocks() throws IOException {
+		long size = channel.size();
+
+		for (long offset = ReplayWriter.HEADER_SIZE; offset + ReplayWriter.BLOCK_HEADER_SIZE <= size;) {
+			ByteBuffer header = read(offset, ReplayWriter.BLOCK_HEADER_SIZE);
+			int storedLength = header.getInt();
+			header.getInt();
+			int count = header.getInt();
+			long end = offset + ReplayWriter.BLOCK_HEADER_SIZE + storedLength;
+
+			if (storedLength < 0 || count <= 0 || count > keyframeInterval || end > size)
+				break;
+
+			if (end + ReplayWriter.BLOCK_HEADER_SIZE > size && !checkBlock(offset))
+				break;
+
+			if (numBlocks == blocks.length)
+				blocks = Arrays.copyOf(blocks, numBlocks * 2);
+
+			blocks[numBlocks++] = offset;
+			numRecords += count;
+			offset = end;
+
+			// only the last block may be short
+			if (count < keyframeInterval)
+				break;
+		}
+	}
+
+	private boolean checkBlock(long offset) throws IOException {
+		try {
+			readStored(offset);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private void loadBlock(int block) throws IOException {
+		ByteBuffer header = readStored(blocks[block]);
+		int storedLength = header.getInt(0);
+		int length = header.getInt(4);
+
+		if (records.length < length)
+			records = new byte[length];
+
+		if (inflater == null) {
+			System.arraycopy(stored, 0, records, 0, length);
+		} else {
+			inflater.reset();
+			inflater.setInput(stored, 0, storedLength);
+
+			try {
+				if (inflater.inflate(records, 0, length) != length)
+					throw new IOException("Corrupt replay block " + block);
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt replay block " + block, e);
+			}
+		}
+
+		loaded = block;
+		limit = length;
+		position = 0;
+		next = block * keyframeInterval;
+	}
+
+	/*
+	 * Reads the stored bytes of the block at the given offset into stored,
+	 * checking them against their checksum, and returns the header of the
+	 * block.
+	 */
+	private ByteBuffer readStored(long offset) throws IOException {
+		ByteBuffer header = read(offset, ReplayWriter.BLOCK_HEADER_SIZE);
+		int storedLength = header.getInt(0);
+
+		if (stored.length < storedLength)
+			stored = new byte[storedLength];
+
+		ByteBuffer buffer = ByteBuffer.wrap(stored, 0, storedLength);
+
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, offset + ReplayWriter.BLOCK_HEADER_SIZE + buffer.position()) < 0)
+				throw new EOFException("Truncated replay");
+
+		crc.reset();
+		crc.update(stored, 0, storedLength);
+
+		if ((int) crc.getValue() != header.getInt(12))
+			throw new IOException("Corrupt replay block at " + offset);
+
+		return header;
+	}
+
+	private void readRecord() throws IOException {
+		int header = readVarint();
+		int count = header >>> 1;
+
+		if ((header & 1) != 0) {
+			for (int i = 0; i < count; i++)
+				state[i] = ReplayWriter.unzigzag(readVarint());
+		} else {
+			ReplayWriter.predict(state);
+
+			for (int i = 0, slot = -1; i < count; i++) {
+				slot += readVarint() + 1;
+				state[slot] += ReplayWriter.unzigzag(readVarint());
+			}
+		}
+
+		next++;
+	}
+
+	private int readVarint() throws IOException {
+		int value = 0;
+
+		for (int shift = 0;; shift += 7) {
+			if (position == limit)
+				throw new EOFException("Truncated replay block");
+
+			int b = records[position++];
+			value |= (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0)
+				return value;
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new EOFException("Truncated replay");
+
+		return buffer.flip();
+	}
+}
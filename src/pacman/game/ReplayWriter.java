@@ -0,0 +1,236 @@
+package pacman.game;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a replay, one record per time step, in a compact binary format that ReplayReader can seek in. Every
+ * KEYFRAME_INTERVAL-th record is a keyframe holding the complete packed state of the game (see Game); the others
+ * only hold the slots that differ from the previous state, most of them small numbers.
+ *
+ * The records are collected in blocks, each starting with a keyframe, and every block is written to the channel
+ * as soon as it is complete, optionally compressed. The memory used is that of one block, whatever the length of
+ * the game, and if the program dies only the block in progress is lost: ReplayReader reads a replay up to its
+ * last complete block. To bound what a crash of the machine can lose, a file is forced to disk whenever a block
+ * is written and syncMillis have passed since it last was.
+ *
+ * Layout: a header (MAGIC, VERSION, keyframe interval, Game.STATE_SIZE, flags), then the blocks. A block starts
+ * with its stored length, its uncompressed length, its number of records and the CRC32 of its stored bytes,
+ * followed by the stored bytes: the records, deflated if the header has the COMPRESSED flag. Numbers in records
+ * are variable-length: 7 bits per byte, least significant first, signed ones zigzag encoded. A record starts with
+ * (number of slots << 1 | keyframe). A keyframe then lists all slots; a delta lists for each slot that changed
+ * its distance to the previous one and its change. The hash and the random number generator of the game are not
+ * recorded, and the clocks of a delta are predicted to advance by one time step.
+ */
+public final class ReplayWriter implements Closeable {
+	static final int MAGIC = 0x504D5250; // "PMRP"
+	static final int VERSION = 2;
+	static final int COMPRESSED = 1;
+	static final int HEADER_SIZE = 20, BLOCK_HEADER_SIZE = 16;
+	public static final int KEYFRAME_INTERVAL = 100;
+	public static final long SYNC_MILLIS = 1000;
+
+	private final WritableByteChannel channel;
+	private final int keyframeInterval;
+	private final Deflater deflater;
+	private final long syncMillis;
+	private final int[] previous = new int[Game.STATE_SIZE];
+	private final int[] current = new int[Game.STATE_SIZE];
+	private final CRC32 crc = new CRC32();
+	private final ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+
+	// the records of the block in progress and, if compressed, the block as stored
+	private byte[] block = new byte[4096];
+	private byte[] stored = new byte[0];
+	private int length;
+	private int numRecords;
+	private long lastSync = System.currentTimeMillis();
+
+	/**
+	 * Creates a compressed replay file, forced to disk about every SYNC_MILLIS.
+	 *
+	 * @param fileName
+	 *            The file, replaced if it exists
+	 */
+	public ReplayWriter(String fileName) throws IOException {
+		this(FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING), KEYFRAME_INTERVAL, true, SYNC_MILLIS);
+	}
+
+	/**
+	 * Creates a writer to the given channel, which is closed with the writer.
+	 *
+	 * @param channel
+	 *            The channel to write to
+	 * @param keyframeInterval
+	 *            The number of records from one keyframe to the next
+	 * @param compress
+	 *            Whether to deflate the blocks
+	 * @param syncMillis
+	 *            The time between forcing a FileChannel to disk, or a
+	 *            negative number never to force it before closing
+	 */
+	public ReplayWriter(WritableByteChannel channel, int keyframeInterval, boolean compress, long syncMillis)
+			throws IOException {
+		this.channel = channel;
+		this.keyframeInterval = keyframeInterval;
+		this.deflater = compress ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+		this.syncMillis = syncMillis;
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(keyframeInterval).putInt(Game.STATE_SIZE)
+				.putInt(compress ? COMPRESSED : 0);
+		writeFully(header.flip());
+	}
+
+	/**
+	 * Appends the current state of the game as the next record.
+	 *
+	 * @param game
+	 *            The game
+	 */
+	public void write(Game game) throws IOException {
+		game.snapshotInto(current);
+		unrecord(current);
+
+		if (numRecords == keyframeInterval)
+			flushBlock();
+
+		if (numRecords == 0) {
+			writeVarint(current.length << 1 | 1);
+
+			for (int value : current)
+				writeVarint(zigzag(value));
+		} else {
+			predict(previous);
+
+			int changed = 0;
+
+			for (int i = 0; i < current.length; i++)
+				if (current[i] != previous[i])
+					changed++;
+
+			writeVarint(changed << 1);
+
+			for (int i = 0, last = -1; i < current.length; i++) {
+				if (current[i] != previous[i]) {
+					writeVarint(i - last - 1);
+					writeVarint(zigzag(current[i] - previous[i]));
+					last = i;
+				}
+			}
+		}
+
+		System.arraycopy(current, 0, previous, 0, current.length);
+		numRecords++;
+	}
+
+	/**
+	 * Writes the block in progress, forces the file to disk and closes the
+	 * channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBlock();
+
+			if (channel instanceof FileChannel)
+				((FileChannel) channel).force(false);
+		} finally {
+			if (deflater != null)
+				deflater.end();
+
+			channel.close();
+		}
+	}
+
+	/**
+	 * Clears the slots that are not recorded.
+	 */
+	static void unrecord(int[] state) {
+		state[Game.HASH_LO] = state[Game.HASH_HI] = 0;
+		state[Game.RNG_LO] = state[Game.RNG_HI] = 0;
+	}
+
+	/**
+	 * Turns a state into the prediction of the next one a delta is taken
+	 * against: one time step later.
+	 */
+	static void predict(int[] state) {
+		state[Game.TOTAL_TIME]++;
+		state[Game.CURRENT_LEVEL_TIME]++;
+	}
+
+	static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private void flushBlock() throws IOException {
+		if (numRecords == 0)
+			return;
+
+		byte[] bytes = block;
+		int storedLength = length;
+
+		if (deflater != null) {
+			deflater.reset();
+			deflater.setInput(block, 0, length);
+			deflater.finish();
+
+			for (storedLength = 0; !deflater.finished();) {
+				if (storedLength == stored.length)
+					stored = Arrays.copyOf(stored, Math.max(1024, stored.length * 2));
+
+				storedLength += deflater.deflate(stored, storedLength, stored.length - storedLength);
+			}
+
+			bytes = stored;
+		}
+
+		crc.reset();
+		crc.update(bytes, 0, storedLength);
+
+		blockHeader.clear();
+		blockHeader.putInt(storedLength).putInt(length).putInt(numRecords).putInt((int) crc.getValue());
+		writeFully(blockHeader.flip());
+		writeFully(ByteBuffer.wrap(bytes, 0, storedLength));
+
+		length = 0;
+		numRecords = 0;
+
+		if (syncMillis >= 0 && channel instanceof FileChannel
+				&& System.currentTimeMillis() - lastSync >= syncMillis) {
+			((FileChannel) channel).force(false);
+			lastSync = System.currentTimeMillis();
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private void writeVarint(int value) {
+		if (length + 5 > block.length)
+			block = Arrays.copyOf(block, block.length * 2);
+
+		while ((value & ~0x7F) != 0) {
+			block[length++] = (byte) (value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+
+		block[length++] = (byte) value;
+	}
+}
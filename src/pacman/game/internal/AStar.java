@@ -1,195 +1,213 @@
 package pacman.game.internal;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.EnumMap;
-import java.util.PriorityQueue;
+import java.util.Arrays;
 
 import pacman.game.Game;
 import pacman.game.Constants.MOVE;
 
 /*
- * This class is used to compute the shortest path for the ghosts: as these may not reverse, one cannot use 
+ * This class is used to compute the shortest path for the ghosts: as these may not reverse, one cannot use
  * a simple look-up table. Instead, we use the pre-computed shortest path distances as an admissable
  * heuristic. Although AStar needs to be run every time a path is to be found, it is very quick and does
  * not expand too many nodes beyond those on the optimal path.
+ *
+ * The graph is immutable and all per-query data (costs, parents, the open list) lives in primitive arrays
+ * owned by the calling thread, so any number of threads may search the same maze at the same time. As all
+ * edges have unit cost, the open list is a bucket queue indexed by g+h.
  */
 public class AStar
 {
-	private N[] graph;
-	
+	private static final MOVE[] MOVES=MOVE.values();
+	private static final int NONE=-1;
+	//states of a node during a search
+	private static final byte UNSEEN=0, OPEN=1, CLOSED=2;
+
+	//neighbours of node i in slots 4i..4i+3, in the order of MOVE.values()
+	private int[] adjNodes;
+	private byte[] adjMoves;
+	private int[] adjCounts;
+
+	private final ThreadLocal<Search> searches=ThreadLocal.withInitial(Search::new);
+
 	public void createGraph(Node[] nodes)
 	{
-		graph=new N[nodes.length];
-		
-		//create graph
-		for(int i=0;i<nodes.length;i++)
-			graph[i]=new N(nodes[i].nodeIndex);
-		
-		//add neighbours
+		adjNodes=new int[nodes.length*4];
+		adjMoves=new byte[nodes.length*4];
+		adjCounts=new int[nodes.length];
+
 		for(int i=0;i<nodes.length;i++)
-		{	
-			EnumMap<MOVE,Integer> neighbours=nodes[i].neighbourhood;
-			MOVE[] moves=MOVE.values();
-			
-			for(int j=0;j<moves.length;j++)
-				if(neighbours.containsKey(moves[j]))
-					graph[i].adj.add(new E(graph[neighbours.get(moves[j])],moves[j],1));	
+		{
+			for(int j=0;j<MOVES.length;j++)
+			{
+				Integer neighbour=nodes[i].neighbourhood.get(MOVES[j]);
+
+				if(neighbour!=null)
+				{
+					adjNodes[i*4+adjCounts[i]]=neighbour;
+					adjMoves[i*4+adjCounts[i]]=(byte)j;
+					adjCounts[i]++;
+				}
+			}
 		}
 	}
-	
-	public synchronized int[] computePathsAStar(int s, int t, MOVE lastMoveMade, Game game)
-    {	
-		N start=graph[s];
-		N target=graph[t];
-		
-        PriorityQueue<N> open = new PriorityQueue<N>();
-        ArrayList<N> closed = new ArrayList<N>();
-
-        start.g = 0;
-        start.h = game.getShortestPathDistance(start.index, target.index);
-
-        start.reached=lastMoveMade;
-        
-        open.add(start);
-
-        while(!open.isEmpty())
-        {
-            N currentNode = open.poll();
-            closed.add(currentNode);
-            
-            if (currentNode.isEqual(target))
-                break;
-
-            for(E next : currentNode.adj)
-            {
-            	if(next.move!=currentNode.reached.opposite())
-            	{
-	                double currentDistance = next.cost;
-	
-	                if (!open.contains(next.node) && !closed.contains(next.node))
-	                {
-	                    next.node.g = currentDistance + currentNode.g;
-	                    next.node.h = game.getShortestPathDistance(next.node.index, target.index);
-	                    next.node.parent = currentNode;
-	                    
-	                    next.node.reached=next.move;
-	
-	                    open.add(next.node);
-	                }
-	                else if (currentDistance + currentNode.g < next.node.g)
-	                {
-	                    next.node.g = currentDistance + currentNode.g;
-	                    next.node.parent = currentNode;
-	                    
-	                    next.node.reached=next.move;
-	
-	                    if (open.contains(next.node))
-	                        open.remove(next.node);
-	
-	                    if (closed.contains(next.node))
-	                        closed.remove(next.node);
-	
-	                    open.add(next.node);
-	                }
-	            }
-            }
-        }
-
-        return extractPath(target);
-    }
-	
-	public synchronized int[] computePathsAStar(int s, int t, Game game)
-    {	
+
+	public int[] computePathsAStar(int s, int t, MOVE lastMoveMade, Game game)
+	{
+		Search search=searches.get();
+		search.reset(adjCounts.length);
+
+		search.g[s]=0;
+		search.h[s]=game.getShortestPathDistance(s, t);
+		search.reached[s]=(byte)lastMoveMade.ordinal();
+		search.push(s, search.h[s]);
+
+		int node;
+
+		while((node=search.pop())!=NONE)
+		{
+			search.state[node]=CLOSED;
+
+			if(node==t)
+				break;
+
+			MOVE reverse=MOVES[search.reached[node]].opposite();
+
+			for(int e=node*4, end=e+adjCounts[node];e<end;e++)
+			{
+				if(adjMoves[e]==reverse.ordinal())
+					continue;
+
+				int next=adjNodes[e];
+				int g=search.g[node]+1;
+
+				if(search.state[next]==UNSEEN || g<search.g[next])
+				{
+					if(search.state[next]==UNSEEN)
+						search.h[next]=game.getShortestPathDistance(next, t);
+
+					search.g[next]=g;
+					search.parent[next]=node;
+					search.reached[next]=adjMoves[e];
+					search.push(next, g+search.h[next]);
+				}
+			}
+		}
+
+		return search.extractPath(t);
+	}
+
+	public int[] computePathsAStar(int s, int t, Game game)
+	{
 		return computePathsAStar(s, t, MOVE.NEUTRAL, game);
-    }
-
-    private synchronized int[] extractPath(N target)
-    {
-    	ArrayList<Integer> route = new ArrayList<Integer>();
-        N current = target;
-        route.add(current.index);
-
-        while (current.parent != null)
-        {
-            route.add(current.parent.index);
-            current = current.parent;
-        }
-        
-        Collections.reverse(route);
-
-        int[] routeArray=new int[route.size()];
-        
-        for(int i=0;i<routeArray.length;i++)
-        	routeArray[i]=route.get(i);
-        
-        return routeArray;
-    }
-    
-    public void resetGraph()
-    {
-    	for(N node : graph)
-    	{
-    		node.g=0;
-    		node.h=0;
-    		node.parent=null;
-    		node.reached=null;
-    	}
-    }
-}
+	}
 
-class N implements Comparable<N>
-{
-    public N parent;
-    public double g, h;
-    public boolean visited = false;
-    public ArrayList<E> adj;
-    public int index;
-    public MOVE reached=null;
-
-    public N(int index)
-    {
-        adj = new ArrayList<E>();
-        this.index=index;
-    }
-
-    public N(double g, double h)
-    {
-        this.g = g;
-        this.h = h;
-    }
-
-    public boolean isEqual(N another)
-    {
-        return index == another.index;
-    }
-
-    public String toString()
-    {
-        return ""+index;
-    }
-
-	public int compareTo(N another)
+	/*
+	 * Nothing to reset as every search starts from a clean slate; kept for compatibility.
+	 */
+	public void resetGraph()
 	{
-      if ((g + h) < (another.g + another.h))
-    	  return -1;
-      else  if ((g + h) > (another.g + another.h))
-    	  return 1;
-		
-		return 0;
 	}
-}
 
-class E
-{
-	public N node;
-	public MOVE move;
-	public double cost;
-	
-	public E(N node,MOVE move,double cost)
+	/*
+	 * Scratch data of the searches of one thread. The open list is a bucket queue: one LIFO list of entries per
+	 * value of g+h. A node whose cost improves is pushed again and its old entry is skipped when popped.
+	 */
+	private static final class Search
 	{
-		this.node=node;
-		this.move=move;
-		this.cost=cost;
+		int[] g=new int[0], h=new int[0], parent=new int[0];
+		byte[] reached=new byte[0], state=new byte[0];
+
+		int[] bucketHeads=new int[0];
+		int[] entryNodes=new int[64], entryCosts=new int[64], entryNext=new int[64];
+		int numEntries, minBucket;
+
+		void reset(int numNodes)
+		{
+			if(g.length!=numNodes)
+			{
+				g=new int[numNodes];
+				h=new int[numNodes];
+				parent=new int[numNodes];
+				reached=new byte[numNodes];
+				state=new byte[numNodes];
+			}
+
+			Arrays.fill(parent, NONE);
+			Arrays.fill(state, UNSEEN);
+			Arrays.fill(bucketHeads, NONE);
+			numEntries=0;
+			minBucket=0;
+		}
+
+		void push(int node, int cost)
+		{
+			if(cost<0)	//nodes not connected to the maze
+				cost=0;
+
+			if(cost>=bucketHeads.length)
+			{
+				int oldLength=bucketHeads.length;
+				bucketHeads=Arrays.copyOf(bucketHeads, Math.max(cost+1, oldLength*2));
+				Arrays.fill(bucketHeads, oldLength, bucketHeads.length, NONE);
+			}
+
+			if(numEntries==entryNodes.length)
+			{
+				entryNodes=Arrays.copyOf(entryNodes, numEntries*2);
+				entryCosts=Arrays.copyOf(entryCosts, numEntries*2);
+				entryNext=Arrays.copyOf(entryNext, numEntries*2);
+			}
+
+			entryNodes[numEntries]=node;
+			entryCosts[numEntries]=cost;
+			entryNext[numEntries]=bucketHeads[cost];
+			bucketHeads[cost]=numEntries++;
+			state[node]=OPEN;
+
+			if(cost<minBucket)
+				minBucket=cost;
+		}
+
+		/*
+		 * Removes and returns the open node of least cost, or NONE if there is none.
+		 */
+		int pop()
+		{
+			for(;minBucket<bucketHeads.length;minBucket++)
+			{
+				while(bucketHeads[minBucket]!=NONE)
+				{
+					int entry=bucketHeads[minBucket];
+					int node=entryNodes[entry];
+					bucketHeads[minBucket]=entryNext[entry];
+
+					int cost=g[node]+h[node];
+
+					if(state[node]==OPEN && Math.max(cost, 0)==entryCosts[entry])
+						return node;
+				}
+			}
+
+			return NONE;
+		}
+
+		int[] extractPath(int target)
+		{
+			int length=1;
+
+			for(int node=target;parent[node]!=NONE;node=parent[node])
+				length++;
+
+			int[] path=new int[length];
+			int node=target;
+
+			for(int i=length-1;i>=0;i--)
+			{
+				path[i]=node;
+				node=parent[node];
+			}
+
+			return path;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,221 @@
+package pacman.game.internal;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/*
+ * The pre-computed shortest path distances of a maze, stored as a triangular matrix (see Maze.getDistance(-)).
+ * Parsing the text files the distances are shipped in is by far the most expensive part of starting a game, so
+ * the first time a maze is loaded they are converted into a compact binary file next to the text file: a header
+ * (magic, version, number of entries, CRC32 of the entries) followed by one 16-bit signed entry per distance,
+ * little-endian so that the lookups need no byte swapping on common hardware.
+ * The binary file is then memory-mapped, which loads it on demand and keeps the distances off the heap. If the
+ * binary file cannot be written or read, the distances parsed from text are used instead. A text file that cannot
+ * be read completely, or does not hold exactly one distance per entry, fails the load rather than being cached.
+ */
+public final class DistanceTable
+{
+	private static final int MAGIC=0x504D4454;		//"PMDT"
+	private static final int VERSION=1;
+	private static final int HEADER_SIZE=16;
+	private static final String EXTENSION=".bin";
+
+	private final ByteBuffer entries;
+
+	private DistanceTable(ByteBuffer entries)
+	{
+		this.entries=entries.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/*
+	 * Returns the distance stored at the given index of the triangular matrix.
+	 */
+	public int get(int index)
+	{
+		return entries.getShort(index<<1);
+	}
+
+	public int size()
+	{
+		return entries.capacity()>>1;
+	}
+
+	/*
+	 * Loads the distances of a maze with the given number of entries from the binary file, which is generated from
+	 * the text file if it does not exist or does not match.
+	 */
+	public static DistanceTable load(String textFile,int numEntries)
+	{
+		Path binary=Paths.get(textFile+EXTENSION);
+
+		if(Files.exists(binary))
+		{
+			try
+			{
+				ByteBuffer entries=map(binary,numEntries);
+
+				if(entries!=null)
+					return new DistanceTable(entries);
+			}
+			catch(IOException ioe)
+			{
+				//fall through and regenerate it
+			}
+		}
+
+		ByteBuffer entries;
+
+		try
+		{
+			entries=parse(textFile,numEntries);
+		}
+		catch(IOException ioe)
+		{
+			//never cache distances that were not all read
+			throw new UncheckedIOException("Cannot load the distances of "+textFile,ioe);
+		}
+
+		try
+		{
+			write(binary,entries);
+		}
+		catch(IOException ioe)
+		{
+			//e.g., a read-only data directory: keep the parsed distances
+		}
+
+		return new DistanceTable(entries);
+	}
+
+	/*
+	 * Maps the entries of a binary file, or returns null if the file does not match the maze.
+	 */
+	private static ByteBuffer map(Path binary,int numEntries) throws IOException
+	{
+		try(FileChannel channel=FileChannel.open(binary,StandardOpenOption.READ))
+		{
+			if(channel.size()!=HEADER_SIZE+2L*numEntries)
+				return null;
+
+			ByteBuffer header=ByteBuffer.allocate(HEADER_SIZE);
+
+			while(header.hasRemaining() && channel.read(header)>=0)
+				;
+
+			header.flip();
+
+			if(header.remaining()<HEADER_SIZE || header.getInt()!=MAGIC || header.getInt()!=VERSION
+					|| header.getInt()!=numEntries)
+				return null;
+
+			int checksum=header.getInt();
+			ByteBuffer entries=channel.map(FileChannel.MapMode.READ_ONLY,HEADER_SIZE,2L*numEntries);
+
+			if(checksum(entries)!=checksum)
+				return null;
+
+			return entries;
+		}
+	}
+
+	/*
+	 * Parses the text file: one distance per line, exactly numEntries of them.
+	 */
+	private static ByteBuffer parse(String textFile,int numEntries) throws IOException
+	{
+		ByteBuffer entries=ByteBuffer.allocate(2*numEntries).order(ByteOrder.LITTLE_ENDIAN);
+
+		try(BufferedReader br=new BufferedReader(new InputStreamReader(new FileInputStream(textFile))))
+		{
+			String input=br.readLine();
+
+			int index=0;
+
+			while(input!=null)
+			{
+				int distance=Integer.parseInt(input);
+
+				if(distance<Short.MIN_VALUE || distance>Short.MAX_VALUE)
+					throw new IllegalStateException("Distance "+distance+" in "+textFile+" does not fit in 16 bits");
+
+				if(index==numEntries)
+					throw new IOException(textFile+" has more than the "+numEntries+" distances of its maze");
+
+				entries.putShort(index++<<1,(short)distance);
+				input=br.readLine();
+			}
+
+			if(index!=numEntries)
+				throw new IOException(textFile+" has "+index+" of the "+numEntries+" distances of its maze");
+		}
+
+		return entries;
+	}
+
+	/*
+	 * Writes the binary file to a temporary file first and then moves it into place, so that concurrent JVMs never
+	 * see a partially written file.
+	 */
+	private static void write(Path binary,ByteBuffer entries) throws IOException
+	{
+		ByteBuffer header=ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(entries.capacity()>>1).putInt(checksum(entries));
+		header.flip();
+
+		Path tmp=binary.resolveSibling(binary.getFileName()+"."+ProcessHandle.current().pid()+"."
+				+Thread.currentThread().getId()+".tmp");
+
+		try
+		{
+			try(FileChannel channel=FileChannel.open(tmp,StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE))
+			{
+				ByteBuffer data=entries.duplicate();
+				data.clear();
+
+				while(header.hasRemaining())
+					channel.write(header);
+
+				while(data.hasRemaining())
+					channel.write(data);
+
+				channel.force(true);
+			}
+
+			try
+			{
+				Files.move(tmp,binary,StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e)
+			{
+				Files.move(tmp,binary,StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static int checksum(ByteBuffer entries)
+	{
+		CRC32 crc=new CRC32();
+		ByteBuffer data=entries.duplicate();
+		data.clear();
+		crc.update(data);
+		return (int)crc.getValue();
+	}
+}
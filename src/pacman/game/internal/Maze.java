@@ -4,8 +4,9 @@ import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 //import java.util.EnumMap;
-//import pacman.game.Constants.MOVE;
+import pacman.game.Constants.MOVE;
 
 import static pacman.game.Constants.*;
 
@@ -18,9 +19,14 @@ import static pacman.game.Constants.*;
 public final class Maze
 {
 	public AStar astar;
-	public int[] shortestPathDistances,pillIndices,powerPillIndices,junctionIndices;	//Information for the controllers
+	public int[] pillIndices,powerPillIndices,junctionIndices;							//Information for the controllers
+	public DistanceTable shortestPathDistances;											//Pre-computed distances, see getDistance(-)
 	public int initialPacManNodeIndex,lairNodeIndex,initialGhostNodeIndex;				//Maze-specific information
 	public Node[] graph;																//The actual maze, stored as a graph (set of nodes)
+	public int[] neighbours,moveMasks;													//Flat adjacency, see buildAdjacency()
+	public MOVE[][] possibleMoves;
+	public int[][] neighbouringNodes;
+	public byte[] pillsByDistance;														//Pills ordered by distance, see buildPillOrder()
 	public String name;																	//Name of the Maze
 	
 	/*
@@ -34,6 +40,8 @@ public final class Maze
 	{
 		loadNodes(nodeNames[index]);
 		loadDistances(distNames[index]);
+		buildAdjacency();
+		buildPillOrder();
 		
 		//create A* graph for shortest paths for the ghosts
 		astar=new AStar();
@@ -97,29 +105,84 @@ public final class Maze
 	/*
 	 * Loads the shortest path distances which have been pre-computed. The data contains the shortest distance from
 	 * any node in the maze to any other node. Since the graph is symmetric, the symmetries have been removed to preserve
-	 * memory and all distances are stored in a 1D array; they are looked-up using getDistance(-). 
+	 * memory and all distances are stored in a 1D array; they are looked-up using getDistance(-). The text file is
+	 * converted to a binary file that is memory-mapped on later runs (see DistanceTable).
 	 */
 	private void loadDistances(String fileName)
 	{
-		this.shortestPathDistances=new int[((graph.length*(graph.length-1))/2)+graph.length];
-		
-        try
-        {
-        	@SuppressWarnings("resource")
-			BufferedReader br=new BufferedReader(new InputStreamReader(new FileInputStream(pathDistances+System.getProperty("file.separator")+fileName)));
-            String input=br.readLine();
-            
-            int index=0;
-            
-            while(input!=null)
-            {	
-            	shortestPathDistances[index++]=Integer.parseInt(input);
-                input=br.readLine();
-            }
-        }
-        catch(IOException ioe)
-        {
-            ioe.printStackTrace();
-        }
+		this.shortestPathDistances=DistanceTable.load(pathDistances+System.getProperty("file.separator")+fileName,
+				((graph.length*(graph.length-1))/2)+graph.length);
+	}
+
+	/*
+	 * Flattens the adjacency of the nodes into arrays so the engine does not need to look up boxed values in the
+	 * maps of the nodes on every step: neighbours[node*4+move] is the neighbour in that direction or -1,
+	 * moveMasks[node] has bit 1<<move set for every direction that has a neighbour, and possibleMoves and
+	 * neighbouringNodes, indexed by node*5+lastMove, are the arrays of allPossibleMoves and allNeighbouringNodes
+	 * of the node (null if the last move is not possible there). All of them are shared and must not be modified.
+	 */
+	private void buildAdjacency()
+	{
+		MOVE[] moves=MOVE.values();
+
+		neighbours=new int[graph.length*4];
+		moveMasks=new int[graph.length];
+		possibleMoves=new MOVE[graph.length*moves.length][];
+		neighbouringNodes=new int[graph.length*moves.length][];
+
+		for(int i=0;i<graph.length;i++)
+		{
+			for(int j=0;j<4;j++)
+			{
+				Integer neighbour=graph[i].neighbourhood.get(moves[j]);
+
+				neighbours[i*4+j]=neighbour==null ? -1 : neighbour;
+
+				if(neighbour!=null)
+					moveMasks[i]|=1<<j;
+			}
+
+			for(int j=0;j<moves.length;j++)
+			{
+				possibleMoves[i*moves.length+j]=graph[i].allPossibleMoves.get(moves[j]);
+				neighbouringNodes[i*moves.length+j]=graph[i].allNeighbouringNodes.get(moves[j]);
+			}
+		}
+	}
+
+	/*
+	 * Orders the pills of the maze by their shortest path distance from every node, so the closest pill still
+	 * available is found by skipping the closer ones already eaten rather than by computing the distance to all
+	 * of them: pillsByDistance[node*pillIndices.length+k] is the index (in pillIndices) of the k-th closest pill
+	 * to the node, pills at the same distance ordered by index. Indices are below Game.MAX_PILLS, so fit a byte.
+	 */
+	private void buildPillOrder()
+	{
+		int numPills=pillIndices.length;
+		int[] keys=new int[numPills];
+
+		pillsByDistance=new byte[graph.length*numPills];
+
+		for(int i=0;i<graph.length;i++)
+		{
+			for(int j=0;j<numPills;j++)
+				keys[j]=(i==pillIndices[j] ? 0 : getDistance(i,pillIndices[j]))<<8|j;
+
+			Arrays.sort(keys);
+
+			for(int j=0;j<numPills;j++)
+				pillsByDistance[i*numPills+j]=(byte)keys[j];
+		}
+	}
+
+	/*
+	 * Returns the pre-computed shortest path distance between two nodes.
+	 */
+	public int getDistance(int fromNodeIndex,int toNodeIndex)
+	{
+		if(fromNodeIndex>toNodeIndex)
+			return shortestPathDistances.get(((fromNodeIndex*(fromNodeIndex+1))/2)+toNodeIndex);
+		else
+			return shortestPathDistances.get(((toNodeIndex*(toNodeIndex+1))/2)+fromNodeIndex);
 	}
 }
\ No newline at end of file
@@ -5,6 +5,8 @@ import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
 
@@ -21,6 +23,11 @@ import pacman.game.Game;
  *  (a) Looking at all combinations of 2-4 junctions, choosing the shortest path that also takes into account the path to get to either of them.
  *  
  * If one only wants the distance instead of the path, a more efficient method has been implemented that does not need to copy arrays.
+ *
+ * The distances of the ghosts are kept in a table indexed by (node, last move, target), filled one row of targets at a
+ * time when a (node, last move) pair is first queried. Each entry is stored as an 8-bit delta over the shortest path
+ * distance, which the path of a ghost can only exceed when it has to go around; deltas that do not fit fall back to
+ * computing the path.
  */
 public class PathsCache 
 {	
@@ -28,6 +35,11 @@ public class PathsCache
 	public DNode[] nodes;
 	public Junction[] junctions;
 	public Game game;
+
+	//ghost distances: 8-bit deltas over the shortest path distance, one row of targets per (node, last move)
+	private static final int NO_DELTA=0xFF;
+	private static final int NUM_MOVES=MOVE.values().length;
+	private final AtomicReferenceArray<byte[]> ghostDistances;
 		
  	public PathsCache(int mazeIndex)
 	{
@@ -43,9 +55,8 @@ public class PathsCache
 
 		nodes = assignJunctionsToNodes(game);
 		junctions = junctionDistances(game);
-		
-		for(int i=0;i<junctions.length;i++)
-			junctions[i].computeShortestPaths();
+
+		ghostDistances=new AtomicReferenceArray<byte[]>(nodes.length*NUM_MOVES);
 	}
 
 	//for Ms Pac-Man
@@ -100,10 +111,119 @@ public class PathsCache
 	
 	/////// ghosts //////////
 	
-	//To be made more efficient shortly.
 	public int getPathDistanceFromA2B(int a, int b, MOVE lastMoveMade)
 	{
-		return getPathFromA2B(a, b, lastMoveMade).length;
+		int row=a*NUM_MOVES+lastMoveMade.ordinal();
+		byte[] deltas=ghostDistances.get(row);
+
+		if(deltas==null)
+		{
+			deltas=computeGhostDistances(a, lastMoveMade);
+			ghostDistances.set(row, deltas);	//rows are identical if computed concurrently
+		}
+
+		int delta=deltas[b]&0xFF;
+
+		if(delta==NO_DELTA)
+			return getPathFromA2B(a, b, lastMoveMade).length;
+
+		return game.getShortestPathDistance(a, b)+delta;
+	}
+
+	/*
+	 * Computes the ghost distances from a to all nodes, as deltas over the shortest path distances.
+	 */
+	private byte[] computeGhostDistances(int a, MOVE lastMoveMade)
+	{
+		byte[] deltas=new byte[nodes.length];
+		JunctionData fromJunction=nodes[a].getNearestJunction(lastMoveMade);
+		int junctionFromId=fromJunction==null ? -1 : junctionIndexConverter.get(fromJunction.nodeID);
+
+		for(int b=0;b<nodes.length;b++)
+		{
+			int distance=a==b ? 0 : fromJunction==null ? -1 : getPathLengthFromA2B(fromJunction, junctionFromId, b, lastMoveMade);
+			int delta=distance-game.getShortestPathDistance(a, b);
+
+			deltas[b]=(byte)(distance<0 || delta<0 || delta>=NO_DELTA ? NO_DELTA : delta);
+		}
+
+		return deltas;
+	}
+
+	/*
+	 * The length of the path getPathFromA2B(a,b,lastMoveMade) returns, without creating it (a!=b), or -1 if
+	 * the path is not defined.
+	 */
+	private int getPathLengthFromA2B(JunctionData fromJunction, int junctionFromId, int b, MOVE lastMoveMade)
+	{
+		//if target is on the way to junction, then we are done
+		for (int i = 0; i < fromJunction.path.length; i++)
+			if (fromJunction.path[i] == b)
+				return i + 1;
+
+		int junctionFrom = fromJunction.nodeID;
+		MOVE moveEnteredJunction = fromJunction.lastMove.equals(MOVE.NEUTRAL) ? lastMoveMade : fromJunction.lastMove;
+		ArrayList<JunctionData> junctionsTo=nodes[b].closestJunctions;
+
+		int minDist = Integer.MAX_VALUE;
+		int shortestLength = -1;
+		int closestJunction = -1;
+		boolean onTheWay=false;
+
+		for (int q = 0; q < junctionsTo.size(); q++)
+		{
+			int junctionToId = junctionIndexConverter.get(junctionsTo.get(q).nodeID);
+
+			if(junctionFromId==junctionToId)
+			{
+				int[] reversepath=junctionsTo.get(q).reversePath;
+
+				if(reversepath.length==0)
+					return -1;
+
+				if(!game.getMoveToMakeToReachDirectNeighbour(junctionFrom, reversepath[0]).equals(moveEnteredJunction.opposite()))
+				{
+					int cutoff=-1;
+
+					for(int w=0;w<reversepath.length;w++)
+						if(reversepath[w]==b)
+							cutoff=w;
+
+					shortestLength = cutoff+1;
+					minDist = shortestLength;
+					closestJunction = q;
+					onTheWay=true;
+				}
+			}
+			else
+			{
+				EnumMap<MOVE, int[]> paths = junctions[junctionFromId].paths[junctionToId];
+
+				for (MOVE move : paths.keySet())
+				{
+					if (!move.opposite().equals(moveEnteredJunction) && !move.equals(MOVE.NEUTRAL))
+					{
+						int length = paths.get(move).length;
+
+						if (length+junctionsTo.get(q).path.length < minDist)
+						{
+							minDist = length+junctionsTo.get(q).path.length;
+							shortestLength = length;
+							closestJunction = q;
+							onTheWay=false;
+						}
+					}
+				}
+			}
+		}
+
+		if(closestJunction==-1)
+			return -1;
+
+		if(!onTheWay)
+			return fromJunction.path.length+shortestLength+junctionsTo.get(closestJunction).reversePath.length;
+		else
+			return fromJunction.path.length+shortestLength;
 	}
 	
 	public int[] getPathFromA2B(int a, int b, MOVE lastMoveMade)
@@ -192,11 +312,12 @@ public class PathsCache
 
 		Junction[] junctions = new Junction[indices.length];
 
-		for (int q = 0; q < indices.length; q++)// from
+		// the source junctions are independent of each other and AStar is re-entrant, so they are spread over all cores
+		IntStream.range(0, indices.length).parallel().forEach(q -> // from
 		{
 			MOVE[] possibleMoves = m.graph[indices[q]].allPossibleMoves.get(MOVE.NEUTRAL);// all possible moves
 
-			junctions[q] = new Junction(q, indices[q], indices.length);
+			Junction junction = new Junction(q, indices[q], indices.length);
 
 			for (int z = 0; z < indices.length; z++)// to (we need to include distance to itself)
 			{
@@ -204,12 +325,14 @@ public class PathsCache
 				{
 					int neighbour = game.getNeighbour(indices[q],possibleMoves[i]);
 					int[] p = m.astar.computePathsAStar(neighbour,indices[z], possibleMoves[i], game);
-					m.astar.resetGraph();
 
-					junctions[q].addPath(z, possibleMoves[i], p);
+					junction.addPath(z, possibleMoves[i], p);
 				}
 			}
-		}
+
+			junction.computeShortestPaths();
+			junctions[q] = junction;
+		});
 
 		return junctions;
 	}
@@ -0,0 +1,60 @@
+package pacman.game.internal;
+
+/*
+ * Undo journal of the game engine: a stack of game states, one frame per advance of the game. As the state of a
+ * game is a single packed int[], a frame holds everything that an advance may change (pills and power pills,
+ * score, timers, the positions and directions of all characters, lives and flags) and undoing an advance is a
+ * single array copy. Frames are stored contiguously in one array that only grows when the journal gets deeper
+ * than ever before, so walking a search tree in place does not allocate.
+ */
+public final class UndoJournal
+{
+	private final int frameSize;
+	private int[] frames;
+	private int depth;
+
+	public UndoJournal(int frameSize, int initialDepth)
+	{
+		this.frameSize=frameSize;
+		this.frames=new int[frameSize*Math.max(1,initialDepth)];
+		this.depth=0;
+	}
+
+	/*
+	 * Records the state before it is modified.
+	 */
+	public void push(int[] state)
+	{
+		if((depth+1)*frameSize>frames.length)
+		{
+			int[] tmp=new int[frames.length*2];
+			System.arraycopy(frames,0,tmp,0,frames.length);
+			frames=tmp;
+		}
+
+		System.arraycopy(state,0,frames,depth*frameSize,frameSize);
+		depth++;
+	}
+
+	/*
+	 * Writes the most recently recorded state back and removes it from the journal.
+	 */
+	public void pop(int[] state)
+	{
+		if(depth==0)
+			throw new IllegalStateException("Nothing to undo");
+
+		depth--;
+		System.arraycopy(frames,depth*frameSize,state,0,frameSize);
+	}
+
+	public int depth()
+	{
+		return depth;
+	}
+
+	public void clear()
+	{
+		depth=0;
+	}
+}
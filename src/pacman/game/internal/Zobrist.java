@@ -0,0 +1,27 @@
+package pacman.game.internal;
+
+/*
+ * Zobrist keys for the packed game state. Instead of a table of random numbers per (variable, value) pair, the
+ * key is computed by a bijective 64-bit mixing function (the SplitMix64 finaliser) of the slot and its value, so
+ * distinct pairs always get distinct, well-distributed keys and no table has to be sized for the largest maze.
+ * The hash of a state is the XOR of the keys of all hashed slots; changing a slot from a to b updates it with
+ * key(slot,a)^key(slot,b).
+ */
+public final class Zobrist
+{
+	private static final long SALT=0x5DEECE66DL;
+
+	private Zobrist()
+	{
+	}
+
+	public static long key(int slot,int value)
+	{
+		long z=(((long)slot<<32)|(value&0xFFFFFFFFL))+SALT;
+
+		z=(z^(z>>>30))*0xBF58476D1CE4E5B9L;
+		z=(z^(z>>>27))*0x94D049BB133111EBL;
+
+		return z^(z>>>31);
+	}
+}
@@ -0,0 +1,104 @@
+package pacman.game.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies that many threads may record into concurrently without locking. Latencies are kept in
+ * microseconds in log-linear buckets: values below 2^SUB_BITS have a bucket each, larger ones share a bucket with
+ * all values that agree in their SUB_BITS most significant bits, so percentiles are accurate to about 1.5%.
+ */
+public final class LatencyHistogram
+{
+	private static final int SUB_BITS=6;
+	private static final int SUB_BUCKETS=1<<SUB_BITS;
+	// enough for latencies of up to 2^40us, i.e., about 12 days
+	private static final int MAX_EXPONENT=40-SUB_BITS;
+
+	private final AtomicLongArray counts=new AtomicLongArray((MAX_EXPONENT+1)*SUB_BUCKETS);
+	private final AtomicLong count=new AtomicLong();
+	private final AtomicLong max=new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos The latency in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		long micros=Math.max(0,nanos/1000);
+
+		counts.incrementAndGet(bucket(micros));
+		count.incrementAndGet();
+		max.accumulateAndGet(micros,Math::max);
+	}
+
+	/**
+	 * Returns the latency below which the given fraction of the recorded latencies lie.
+	 *
+	 * @param fraction The fraction, e.g. 0.99 for the 99th percentile
+	 * @return the latency in microseconds (the upper end of its bucket), or 0 if nothing was recorded
+	 */
+	public long getPercentile(double fraction)
+	{
+		long total=count.get();
+
+		if(total==0)
+			return 0;
+
+		long rank=Math.max(1,(long)Math.ceil(fraction*total));
+		long seen=0;
+
+		for(int i=0;i<counts.length();i++)
+		{
+			seen+=counts.get(i);
+
+			if(seen>=rank)
+				return Math.min(upperBound(i),max.get());
+		}
+
+		return max.get();
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * @return the largest latency recorded, in microseconds
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	private static int bucket(long micros)
+	{
+		if(micros<SUB_BUCKETS)
+			return (int)micros;
+
+		int exponent=Math.min(63-Long.numberOfLeadingZeros(micros)-SUB_BITS+1,MAX_EXPONENT);
+
+		return (int)Math.min(exponent*SUB_BUCKETS+(micros>>(exponent-1))-SUB_BUCKETS,
+				(MAX_EXPONENT+1)*SUB_BUCKETS-1L);
+	}
+
+	private static long upperBound(int bucket)
+	{
+		if(bucket<SUB_BUCKETS)
+			return bucket;
+
+		int exponent=bucket/SUB_BUCKETS;
+		long mantissa=bucket%SUB_BUCKETS+SUB_BUCKETS;
+
+		return ((mantissa+1)<<(exponent-1))-1;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("p50 %dus, p90 %dus, p99 %dus, p99.9 %dus, max %dus (n=%d)",getPercentile(0.5),
+				getPercentile(0.9),getPercentile(0.99),getPercentile(0.999),getMax(),getCount());
+	}
+}
@@ -0,0 +1,130 @@
+package pacman.game.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fast, seedable pseudo-random number generator (SplitMix64, as used by java.util.SplittableRandom).
+ * Its whole state is one long, so it can be copied, stored and restored exactly (the game keeps it in its
+ * packed state, see Game), and the same seed always yields the same sequence. Unlike java.util.Random it
+ * does no synchronisation: an instance must only be used by one thread at a time. Use split() to derive
+ * independent generators for other threads.
+ */
+public final class SplitMix64
+{
+	private static final long GAMMA=0x9E3779B97F4A7C15L;
+	private static final double DOUBLE_UNIT=0x1.0p-53;
+	private static final float FLOAT_UNIT=0x1.0p-24f;
+
+	// seeds of generators created without one
+	private static final AtomicLong seeds=new AtomicLong(System.nanoTime());
+
+	private long state;
+
+	/**
+	 * Creates a generator with a seed that differs from those of all other generators created this way.
+	 */
+	public SplitMix64()
+	{
+		this(mix(seeds.addAndGet(GAMMA)));
+	}
+
+	public SplitMix64(long seed)
+	{
+		state=seed;
+	}
+
+	public void setSeed(long seed)
+	{
+		state=seed;
+	}
+
+	/**
+	 * Returns the state of the generator; a generator created with it as seed continues the same sequence.
+	 */
+	public long getState()
+	{
+		return state;
+	}
+
+	/**
+	 * Returns the state that follows the given one, for callers that keep the state themselves: the random
+	 * long drawn in the step is mix() of the new state.
+	 */
+	public static long nextState(long state)
+	{
+		return state+GAMMA;
+	}
+
+	/**
+	 * The SplitMix64 output function, a bijective mix of the bits of z.
+	 */
+	public static long mix(long z)
+	{
+		z=(z^(z>>>30))*0xBF58476D1CE4E5B9L;
+		z=(z^(z>>>27))*0x94D049BB133111EBL;
+		return z^(z>>>31);
+	}
+
+	public long nextLong()
+	{
+		return mix(state+=GAMMA);
+	}
+
+	public int nextInt()
+	{
+		return (int)(nextLong()>>>32);
+	}
+
+	/**
+	 * Returns a uniformly distributed int in [0, bound).
+	 */
+	public int nextInt(int bound)
+	{
+		if(bound<=0)
+			throw new IllegalArgumentException("bound must be positive: "+bound);
+
+		// Lemire's multiply-and-shift, rejecting the few values that would bias the result
+		long m=(nextLong()>>>32)*bound;
+
+		if((m&0xFFFFFFFFL)<bound)
+		{
+			long threshold=(0x100000000L-bound)%bound;
+
+			while((m&0xFFFFFFFFL)<threshold)
+				m=(nextLong()>>>32)*bound;
+		}
+
+		return (int)(m>>>32);
+	}
+
+	public double nextDouble()
+	{
+		return toDouble(nextLong());
+	}
+
+	/**
+	 * Maps a random long to a uniformly distributed double in [0, 1).
+	 */
+	public static double toDouble(long bits)
+	{
+		return (bits>>>11)*DOUBLE_UNIT;
+	}
+
+	public float nextFloat()
+	{
+		return (nextLong()>>>40)*FLOAT_UNIT;
+	}
+
+	public boolean nextBoolean()
+	{
+		return nextLong()<0;
+	}
+
+	/**
+	 * Returns a new generator seeded from this one, whose sequence is independent of the rest of this one's.
+	 */
+	public SplitMix64 split()
+	{
+		return new SplitMix64(mix(nextLong()));
+	}
+}
@@ -0,0 +1,40 @@
+package pacman.game.util;
+
+/**
+ * Summary statistics of a sample, e.g., the scores of a number of games: the mean, the sample
+ * standard deviation and the half-width of the 95% confidence interval of the mean (normal
+ * approximation, which is adequate for the number of trials experiments are usually run with).
+ */
+public final class Stats
+{
+	public final int n;
+	public final double mean;
+	public final double std;
+	public final double ci95;
+
+	public Stats(int[] values)
+	{
+		n=values.length;
+
+		double sum=0;
+
+		for(int value : values)
+			sum+=value;
+
+		mean=n==0 ? 0 : sum/n;
+
+		double squares=0;
+
+		for(int value : values)
+			squares+=(value-mean)*(value-mean);
+
+		std=n<2 ? 0 : Math.sqrt(squares/(n-1));
+		ci95=n==0 ? 0 : 1.96*std/Math.sqrt(n);
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%.2f +/- %.2f (sd %.2f, n=%d)",mean,ci95,std,n);
+	}
+}
@@ -0,0 +1,121 @@
+package pacman.game.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The clock controllers measure their time budget with (see millis()). Normally this is the wall clock. A
+ * headless game (see Executor.runGameHeadless) installs a virtual clock instead, which only moves when the game
+ * advances it or when it is read: every read costs a fixed amount of virtual time. A controller that searches
+ * until the move is due thus gets a fixed number of clock checks per move instead of a span of real time, which
+ * makes games reproducible and lets them run as fast as the controllers can compute.
+ *
+ * The clock is installed for the current thread only. A controller that searches on threads of its own hands
+ * each of them a fork of its clock (see fork() and join()), so that every thread gets the same budget of reads
+ * however the threads are scheduled.
+ */
+public final class VirtualClock
+{
+	/**
+	 * Virtual time a read of the clock costs by default: 0.1ms.
+	 */
+	public static final long DEFAULT_READ_COST=100_000;
+
+	private static final ThreadLocal<VirtualClock> current=new ThreadLocal<VirtualClock>();
+
+	private final AtomicLong nanos=new AtomicLong();
+	private final long readCost;
+
+	/**
+	 * Creates a virtual clock that starts at 0.
+	 *
+	 * @param readCost The virtual time a read of the clock costs, in nanoseconds
+	 */
+	public VirtualClock(long readCost)
+	{
+		this.readCost=readCost;
+	}
+
+	/**
+	 * Returns the current time in milliseconds for the calling thread: that of its virtual clock if one is
+	 * installed, which is advanced by the cost of a read, or the wall clock otherwise. Controllers should use
+	 * this instead of System.currentTimeMillis() to check their timeDue.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public static long millis()
+	{
+		VirtualClock clock=current.get();
+
+		return clock==null ? System.currentTimeMillis() : clock.nanos.addAndGet(clock.readCost)/1_000_000;
+	}
+
+	/**
+	 * Returns the virtual clock of the calling thread.
+	 *
+	 * @return the clock, or null if the thread runs on the wall clock
+	 */
+	public static VirtualClock current()
+	{
+		return current.get();
+	}
+
+	/**
+	 * Returns a new clock at the time of this one, with the same read cost, for a thread working on behalf of
+	 * the thread this clock is installed for.
+	 *
+	 * @return the fork
+	 */
+	public VirtualClock fork()
+	{
+		VirtualClock fork=new VirtualClock(readCost);
+		fork.nanos.set(nanos.get());
+		return fork;
+	}
+
+	/**
+	 * Moves this clock forward to the time of a fork if the fork is ahead, e.g. once a search on several
+	 * threads is over: the search took as long as its slowest thread.
+	 *
+	 * @param fork A fork of this clock
+	 */
+	public void join(VirtualClock fork)
+	{
+		nanos.accumulateAndGet(fork.nanos.get(),Math::max);
+	}
+
+	/**
+	 * Returns the time of this clock in milliseconds without charging a read.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long now()
+	{
+		return nanos.get()/1_000_000;
+	}
+
+	/**
+	 * Sets the clock to the given time, e.g. to the time the current move was due.
+	 *
+	 * @param millis The time in milliseconds
+	 */
+	public void set(long millis)
+	{
+		nanos.set(millis*1_000_000);
+	}
+
+	/**
+	 * Makes this the clock of the calling thread.
+	 */
+	public void install()
+	{
+		current.set(this);
+	}
+
+	/**
+	 * Reverts the calling thread to the wall clock.
+	 */
+	public static void uninstall()
+	{
+		current.remove();
+	}
+}